@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext.benchmark;
+
+import io.ocfl.api.DigestAlgorithmRegistry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the hot paths of {@link nl.knaw.dans.lib.ocflext.LayeredStorage}. Run with:
+ *
+ * <pre>
+ * mvn install -DskipTests
+ * mvn -f benchmarks/pom.xml package
+ * java -jar benchmarks/target/benchmarks.jar
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayeredStorageBenchmark {
+    private static final byte[] WRITE_CONTENT = "benchmark content\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * A directory outside the storage with a few files in it, recreated before each invocation of {@link #moveDirectoryInto}.
+     */
+    @State(Scope.Thread)
+    public static class MoveSource {
+        public Path directory;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("move-source");
+            for (int i = 0; i < 3; i++) {
+                Files.write(directory.resolve("file-" + i + ".txt"), WRITE_CONTENT);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            // Normally moved away by the benchmark, but not if it failed
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Benchmark
+    public boolean fileExistsHit(StorageState state) {
+        return state.storage.fileExists(state.nextContentFile());
+    }
+
+    @Benchmark
+    public boolean fileExistsMiss(StorageState state) {
+        return state.storage.fileExists(state.nextObjectRoot() + "/inventory.json.sha256");
+    }
+
+    @Benchmark
+    public void read(StorageState state, Blackhole blackhole) throws IOException {
+        try (InputStream is = state.storage.read(state.nextContentFile())) {
+            blackhole.consume(is.readAllBytes());
+        }
+    }
+
+    @Benchmark
+    public String readToString(StorageState state) {
+        return state.storage.readToString(state.nextObjectRoot() + "/inventory.json");
+    }
+
+    @Benchmark
+    public void readLazyRetrieveRange(StorageState state, Blackhole blackhole) throws IOException {
+        var retriever = state.storage.readLazy(state.nextContentFile(), DigestAlgorithmRegistry.sha512, "unused");
+        // The last 100 bytes, so that the cost of reaching the start position is included
+        try (InputStream is = retriever.retrieveRange((long) state.fileSize - 100, (long) state.fileSize - 1)) {
+            blackhole.consume(is.readAllBytes());
+        }
+    }
+
+    @Benchmark
+    public Object listDirectory(StorageState state) {
+        return state.storage.listDirectory(state.nextObjectRoot() + "/v1/content");
+    }
+
+    @Benchmark
+    public Object listRecursive(StorageState state) {
+        return state.storage.listRecursive(state.nextObjectRoot());
+    }
+
+    @Benchmark
+    public int iterateObjects(StorageState state) throws IOException {
+        int count = 0;
+        try (var iterator = state.storage.iterateObjects()) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public void write(StorageState state) {
+        state.storage.write(StorageState.WRITES_DIR + "/file-" + state.nextUniqueId() + ".txt", WRITE_CONTENT, null);
+    }
+
+    @Benchmark
+    public void moveDirectoryInto(StorageState state, MoveSource source) {
+        state.storage.moveDirectoryInto(source.directory, StorageState.MOVES_DIR + "/dir-" + state.nextUniqueId());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext.benchmark;
+
+import io.dropwizard.testing.junit5.DAOTestExtension;
+import nl.knaw.dans.layerstore.ItemRecord;
+import nl.knaw.dans.layerstore.LayerDatabaseImpl;
+import nl.knaw.dans.layerstore.LayeredItemStore;
+import nl.knaw.dans.layerstore.ZipArchiveProvider;
+import nl.knaw.dans.lib.ocflext.LayeredStorage;
+import nl.knaw.dans.lib.util.PersistenceProviderImpl;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link LayeredStorage} over a {@link LayeredItemStore} with a {@link ZipArchiveProvider} and an embedded H2 layer database, filled with a number of OCFL-like objects.
+ *
+ * <p>
+ * In the {@code staging} scenario all objects are in the open staging layer. In the {@code archived} scenario the objects are spread over {@link #layers} layers, all but the top one of which are
+ * archived.
+ * </p>
+ *
+ * <p>
+ * The layer database uses a Hibernate session that is bound to the current thread, so this state has {@link Scope#Thread} scope: JMH runs the setup on the thread that owns the state.
+ * </p>
+ */
+@State(Scope.Thread)
+public class StorageState {
+    public static final String OBJECTS_DIR = "objects";
+    public static final String WRITES_DIR = "bench-writes";
+    public static final String MOVES_DIR = "bench-moves";
+
+    @Param({ "staging", "archived" })
+    public String scenario;
+
+    @Param({ "20" })
+    public int layers;
+
+    @Param({ "25" })
+    public int objectsPerLayer;
+
+    @Param({ "10" })
+    public int filesPerObject;
+
+    @Param({ "4096" })
+    public int fileSize;
+
+    public LayeredItemStore itemStore;
+    public LayeredStorage storage;
+    public Path workDir;
+
+    /**
+     * Content files that exist in the storage, in the order they were written. Objects from older layers come first.
+     */
+    public List<String> contentFiles;
+
+    /**
+     * Object root directories that exist in the storage.
+     */
+    public List<String> objectRoots;
+
+    private DAOTestExtension daoTestExtension;
+    private int nextContentFile;
+    private int nextObjectRoot;
+    private long nextUniqueId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        workDir = Files.createTempDirectory("layered-storage-benchmark");
+        var stagingDir = Files.createDirectories(workDir.resolve("layer_staging"));
+        var archiveDir = Files.createDirectories(workDir.resolve("layer_archive"));
+        daoTestExtension = DAOTestExtension.newBuilder()
+            .addEntityClass(ItemRecord.class)
+            .build();
+        daoTestExtension.before();
+        var db = new LayerDatabaseImpl(new PersistenceProviderImpl<>(daoTestExtension.getSessionFactory(), ItemRecord.class));
+        itemStore = new LayeredItemStore.Builder()
+            .database(db)
+            .stagingRoot(stagingDir)
+            .archiveProvider(new ZipArchiveProvider(archiveDir))
+            .build();
+        itemStore.newTopLayer();
+        storage = new LayeredStorage(itemStore);
+        populate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        storage.close();
+        daoTestExtension.after();
+        FileUtils.deleteDirectory(workDir.toFile());
+    }
+
+    public String nextContentFile() {
+        var path = contentFiles.get(nextContentFile);
+        nextContentFile = (nextContentFile + 1) % contentFiles.size();
+        return path;
+    }
+
+    public String nextObjectRoot() {
+        var path = objectRoots.get(nextObjectRoot);
+        nextObjectRoot = (nextObjectRoot + 1) % objectRoots.size();
+        return path;
+    }
+
+    public long nextUniqueId() {
+        return nextUniqueId++;
+    }
+
+    private void populate() throws Exception {
+        contentFiles = new ArrayList<>();
+        objectRoots = new ArrayList<>();
+        var content = new byte[fileSize];
+        Arrays.fill(content, (byte) 'x');
+        int objectNumber = 0;
+        for (int layer = 0; layer < layers; layer++) {
+            for (int i = 0; i < objectsPerLayer; i++) {
+                writeObject(objectNumber++, content);
+            }
+            if ("archived".equals(scenario)) {
+                // Closes the current top layer and archives it
+                itemStore.newTopLayer();
+            }
+        }
+        storage.createDirectories(WRITES_DIR);
+        storage.createDirectories(MOVES_DIR);
+    }
+
+    private void writeObject(int objectNumber, byte[] content) {
+        var objectRoot = String.format("%s/%02d/obj-%06d", OBJECTS_DIR, objectNumber % 100, objectNumber);
+        var contentDir = objectRoot + "/v1/content";
+        storage.createDirectories(contentDir);
+        storage.write(objectRoot + "/0=ocfl_object_1.1", "ocfl_object_1.1\n".getBytes(StandardCharsets.UTF_8), null);
+        storage.write(objectRoot + "/inventory.json", "{}".getBytes(StandardCharsets.UTF_8), null);
+        for (int f = 0; f < filesPerObject; f++) {
+            var file = String.format("%s/file-%03d.txt", contentDir, f);
+            storage.write(file, content, null);
+            contentFiles.add(file);
+        }
+        objectRoots.add(objectRoot);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for opening an archived layer, i.e., reading its central directory, by {@link ZipFileHandlePool}. Only emitted if the item store reads its archives through a
+ * {@link PooledZipArchiveProvider}; the archives of a plain {@link nl.knaw.dans.layerstore.ZipArchiveProvider} are opened inside the layer store library.
+ */
+@Name("nl.knaw.dans.ocflext.ArchiveOpen")
+@Label("Archive Open")
+@Category({ "DANS", "OCFL Storage" })
+class ArchiveOpenEvent extends jdk.jfr.Event {
+    @Label("Archive")
+    String archive;
+
+    @Label("Layer Id")
+    long layerId;
+
+    @Label("Archive Size")
+    @DataAmount
+    long archiveSize;
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of equally sized byte buffers, to avoid allocating a new copy buffer for every stream that is processed. At most {@code maxPooled} idle buffers are kept; when the pool is empty a new
+ * buffer is allocated.
+ */
+class BufferPool {
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> pool;
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.pool = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    byte[] acquire() {
+        var buffer = pool.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    void release(byte[] buffer) {
+        if (buffer.length == bufferSize) {
+            pool.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed storage of content files, used by {@link LayeredStorage} when content addressing is enabled. The bytes of a content file are stored once, as a blob under
+ * {@value #BLOB_ROOT}, keyed by their SHA-512 digest. The content file itself is replaced by a small reference to the blob. Reads through {@link LayeredStorage} resolve references
+ * transparently.
+ *
+ * <p>
+ * A reference is recognized by its content: it has a fixed length and starts with a fixed prefix, so reading the first bytes of a content file tells whether it can be a reference. As an ordinary
+ * content file could look like a reference too, every reference is also recorded out of band: a marker with the digest of the blob is stored under {@value #MARKER_ROOT}, at the path of the
+ * content file. A file is only resolved if it looks like a reference and has a marker for the same blob, so a file that merely looks like a reference is read as is, and a marker that is left
+ * behind, e.g. because deleting it failed, is harmless. The markers are kept up to date by the moves, copies and deletes that go through {@link LayeredStorage}.
+ * </p>
+ *
+ * <p>
+ * Blobs are never deleted, so a reference can never dangle, even if the content file that first introduced the blob is deleted. The blobs live in the extensions directory of the storage root,
+ * which is where the OCFL specification allows non-object content. They are stored in the layers, not in the layer database (see {@link StoreInventoryDbBackedContentManager}). Note that the
+ * archived layers are not a complete OCFL storage root on their own anymore: the references must be resolved against the blobs, e.g. by reading through {@link LayeredStorage}.
+ * </p>
+ */
+@Slf4j
+class ContentAddressedStore {
+    static final String STORE_ROOT = "extensions/dans-content-addressed-store";
+    static final String BLOB_ROOT = STORE_ROOT + "/sha512";
+    static final String MARKER_ROOT = STORE_ROOT + "/references";
+    private static final String REFERENCE_PREFIX = "DANS-OCFL-CONTENT-REFERENCE/1\nsha512:";
+    private static final int REFERENCE_LENGTH = REFERENCE_PREFIX.length() + 128 + 1;
+    private static final Pattern REFERENCE_PATTERN = Pattern.compile("^" + Pattern.quote(REFERENCE_PREFIX) + "(?<digest>[0-9a-f]{128})\n$");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // The object root and the path relative to it of a file in the content directory of an object version; the first version content directory in the path counts
+    private static final Pattern VERSION_CONTENT_PATTERN = Pattern.compile("^(?<root>[^/].*?)/(?<relative>v\\d+/content/.+)$");
+
+    private final ItemStore itemStore;
+    private final long minSize;
+    private final Object[] blobLocks = new Object[64];
+
+    /**
+     * @param itemStore the item store to store blobs and references in
+     * @param minSize   files smaller than this are stored as is, as the reference would not save much
+     */
+    ContentAddressedStore(ItemStore itemStore, long minSize) {
+        this.itemStore = itemStore;
+        this.minSize = minSize;
+        for (int i = 0; i < blobLocks.length; i++) {
+            blobLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Only files in the content directory of an OCFL object version ({@code <object root>/v<n>/content/...}) are replaced by references; inventories, sidecars, extensions (such as the mutable
+     * head) and other metadata are stored as is.
+     *
+     * @param path the storage path of the file
+     * @param size the size of the file
+     * @return whether the file should be stored as a reference
+     */
+    boolean isEligible(String path, long size) {
+        return size >= minSize && isVersionContent(path);
+    }
+
+    private static boolean isVersionContent(String path) {
+        var matcher = VERSION_CONTENT_PATTERN.matcher(path);
+        if (!matcher.matches()) {
+            return false;
+        }
+        var root = matcher.group("root");
+        return !root.equals("extensions") && !root.startsWith("extensions/") && !root.contains("/extensions/") && !root.endsWith("/extensions");
+    }
+
+    /**
+     * Makes sure the content of the file is stored as a blob. The file can then be replaced by {@link #reference(String)}, which the caller must record with {@link #referencesWritten(Map)}
+     * once it is stored.
+     *
+     * @param source a file on the local file system
+     * @param digest the SHA-512 digest of the file, if already known; otherwise {@code null}
+     * @return the digest of the blob
+     * @throws IOException if the file could not be read or the blob could not be written
+     */
+    String store(Path source, String digest) throws IOException {
+        if (digest == null) {
+            try (var in = new DigestInputStream(Files.newInputStream(source), newMessageDigest())) {
+                in.transferTo(OutputStream.nullOutputStream());
+                digest = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            }
+        }
+        else {
+            digest = digest.toLowerCase();
+        }
+        var blobPath = blobPath(digest);
+        // Blobs are shared by all objects, so concurrent writers of different objects may store the same blob at the same time
+        synchronized (blobLocks[Math.floorMod(digest.hashCode(), blobLocks.length)]) {
+            if (!itemStore.existsPathLike(Util.escapeLikeWildcards(blobPath))) {
+                itemStore.createDirectories(blobPath.substring(0, blobPath.lastIndexOf('/')));
+                try (var in = Files.newInputStream(source)) {
+                    itemStore.writeFile(blobPath, in);
+                }
+            }
+            else {
+                log.debug("Content of {} already stored as {}", source, blobPath);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Prepares a directory that is about to be moved into the item store: builds a copy of it in a new temporary directory next to it, with every eligible file replaced by a reference to a
+     * blob with the same content. The directory itself is left as it is, so that it is still intact if the move fails.
+     *
+     * <p>
+     * If the directory contains an OCFL inventory with SHA-512 digests (as a staged object or object version does), the digests in its manifest are used instead of reading the content files
+     * to compute them.
+     * </p>
+     *
+     * @param directory   a directory on the local file system
+     * @param storagePath the storage path the directory is going to be moved to
+     * @return the prepared copy
+     * @throws IOException if a file could not be read or written, or a blob could not be written
+     */
+    PreparedDirectory prepareForMoveInto(Path directory, String storagePath) throws IOException {
+        var manifestDigests = readManifestDigests(directory);
+        var copy = Files.createTempDirectory(directory.toAbsolutePath().getParent(), directory.getFileName() + ".cas-");
+        var references = new HashMap<String, String>();
+        try {
+            List<Path> paths;
+            try (var walk = Files.walk(directory)) {
+                paths = walk.toList();
+            }
+            for (var path : paths) {
+                var relative = directory.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+                var target = copy.resolve(directory.relativize(path));
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                var fileStoragePath = storagePath + "/" + relative;
+                if (isEligible(fileStoragePath, Files.size(path))) {
+                    var digest = store(path, manifestDigests.get(contentPathOf(fileStoragePath)));
+                    Files.write(target, reference(digest));
+                    references.put(fileStoragePath, digest);
+                }
+                else {
+                    Files.copy(path, target);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(copy.toFile());
+            throw e;
+        }
+        return new PreparedDirectory(copy, references);
+    }
+
+    /**
+     * A copy of a directory, prepared by {@link #prepareForMoveInto(Path, String)}.
+     *
+     * @param path       the copy, to be moved into the item store instead of the original
+     * @param references the storage paths of the files that were replaced by references, with their digests
+     */
+    record PreparedDirectory(Path path, Map<String, String> references) {
+    }
+
+    /*
+     * Returns the SHA-512 digests of the content files listed in the manifest of the inventory in the directory, by content path. Returns an empty map if there is no usable inventory.
+     */
+    private static Map<String, String> readManifestDigests(Path directory) {
+        var inventory = directory.resolve("inventory.json");
+        if (!Files.isRegularFile(inventory)) {
+            return Map.of();
+        }
+        try {
+            var root = MAPPER.readTree(inventory.toFile());
+            if (!"sha512".equals(root.path("digestAlgorithm").asText())) {
+                return Map.of();
+            }
+            var digests = new HashMap<String, String>();
+            var manifest = root.path("manifest").fields();
+            while (manifest.hasNext()) {
+                var entry = manifest.next();
+                for (var contentPath : entry.getValue()) {
+                    digests.put(contentPath.asText(), entry.getKey());
+                }
+            }
+            return digests;
+        }
+        catch (IOException e) {
+            log.debug("Could not read manifest digests from {}; computing digests instead", inventory, e);
+            return Map.of();
+        }
+    }
+
+    private static String contentPathOf(String storagePath) {
+        var matcher = VERSION_CONTENT_PATTERN.matcher(storagePath);
+        return matcher.matches() ? matcher.group("relative") : storagePath;
+    }
+
+    /**
+     * Records that files were stored as references, by writing their markers.
+     *
+     * @param references the storage paths of the reference files, with the digests of their blobs
+     * @throws IOException if a marker could not be written
+     */
+    void referencesWritten(Map<String, String> references) throws IOException {
+        var parents = new HashSet<String>();
+        for (var entry : references.entrySet()) {
+            var marker = markerPath(entry.getKey());
+            var parent = marker.substring(0, marker.lastIndexOf('/'));
+            if (parents.add(parent)) {
+                itemStore.createDirectories(parent);
+            }
+            itemStore.writeFile(marker, new ByteArrayInputStream(entry.getValue().getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    /**
+     * Records that a file was copied within the item store; if it is a reference, so is the copy.
+     */
+    void fileCopied(String source, String destination) throws IOException {
+        if (!isVersionContent(source) || !isVersionContent(destination)) {
+            return;
+        }
+        String digest;
+        try (var in = Util.openFile(itemStore, destination)) {
+            digest = referencedDigest(source, in.readNBytes(REFERENCE_LENGTH + 1));
+        }
+        if (digest != null) {
+            referencesWritten(Map.of(destination, digest));
+        }
+    }
+
+    void filesDeleted(Collection<String> paths) throws IOException {
+        var markers = new ArrayList<String>();
+        for (var path : paths) {
+            if (isVersionContent(path) && isReference(path)) {
+                markers.add(markerPath(path));
+            }
+        }
+        if (!markers.isEmpty()) {
+            itemStore.deleteFiles(markers);
+        }
+    }
+
+    void directoryDeleted(String path) throws IOException {
+        var markerDirectory = markerPath(path);
+        if (itemStore.existsPathLike(Util.escapeLikeWildcards(markerDirectory))) {
+            itemStore.deleteDirectory(markerDirectory);
+        }
+    }
+
+    void directoryMoved(String source, String destination) throws IOException {
+        var markerSource = markerPath(source);
+        if (itemStore.existsPathLike(Util.escapeLikeWildcards(markerSource))) {
+            var markerDestination = markerPath(destination);
+            itemStore.createDirectories(markerDestination.substring(0, markerDestination.lastIndexOf('/')));
+            itemStore.moveDirectoryInternal(markerSource, markerDestination);
+        }
+    }
+
+    /**
+     * Returns the content of the file, resolving the file if it is a reference.
+     *
+     * @param path the storage path of the file
+     * @param raw  the stream as read from the item store
+     * @return a stream of the actual content
+     * @throws IOException if the stream could not be read, or the blob could not be opened
+     */
+    InputStream resolve(String path, InputStream raw) throws IOException {
+        if (!isVersionContent(path)) {
+            return raw;
+        }
+        try {
+            // Skipping on the returned stream still skips on the raw stream, once the pushed back bytes are skipped
+            var in = new PushbackInputStream(raw, REFERENCE_LENGTH + 1);
+            var head = in.readNBytes(REFERENCE_LENGTH + 1);
+            var digest = referencedDigest(path, head);
+            if (digest == null) {
+                in.unread(head);
+                return in;
+            }
+            raw.close();
+            return Util.openFile(itemStore, blobPath(digest));
+        }
+        catch (IOException | RuntimeException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces every reference in the directory with the content it refers to. Used after a directory has been copied out of the item store.
+     *
+     * @param storagePath the storage path of the directory that was copied
+     * @param directory   the copy on the local file system
+     * @throws IOException if a file could not be read or written
+     */
+    void materializeReferences(String storagePath, Path directory) throws IOException {
+        List<Item> markers;
+        try {
+            markers = itemStore.listRecursive(markerPath(storagePath));
+        }
+        catch (NoSuchFileException e) {
+            return;
+        }
+        var markerDirectory = markerPath(storagePath);
+        for (var marker : markers) {
+            if (marker.getType() != Item.Type.File) {
+                continue;
+            }
+            var file = directory.resolve(marker.getPath().substring(markerDirectory.length() + 1));
+            var digest = readMarker(marker.getPath());
+            // A marker that was left behind is ignored
+            if (!Files.isRegularFile(file) || Files.size(file) != REFERENCE_LENGTH || !digest.equals(parseReference(Files.readAllBytes(file)))) {
+                continue;
+            }
+            try (var in = Util.openFile(itemStore, blobPath(digest))) {
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private boolean isReference(String path) {
+        return itemStore.existsPathLike(Util.escapeLikeWildcards(markerPath(path)));
+    }
+
+    /*
+     * Returns the digest of the blob the file refers to, or null if the file is not a reference. The marker is only looked up if the first bytes of the file, of which at most
+     * REFERENCE_LENGTH + 1 are needed, look like a reference.
+     */
+    private String referencedDigest(String path, byte[] head) throws IOException {
+        var digest = parseReference(head);
+        if (digest == null || !isReference(path)) {
+            return null;
+        }
+        return digest.equals(readMarker(markerPath(path))) ? digest : null;
+    }
+
+    private static String parseReference(byte[] content) {
+        if (content.length != REFERENCE_LENGTH) {
+            return null;
+        }
+        var matcher = REFERENCE_PATTERN.matcher(new String(content, StandardCharsets.US_ASCII));
+        return matcher.matches() ? matcher.group("digest") : null;
+    }
+
+    private String readMarker(String markerPath) throws IOException {
+        try (var in = Util.openFile(itemStore, markerPath)) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII).trim();
+        }
+    }
+
+    private static String markerPath(String path) {
+        return MARKER_ROOT + "/" + path;
+    }
+
+    /**
+     * @param digest the digest of a blob
+     * @return the content of a reference file for the blob
+     */
+    static byte[] reference(String digest) {
+        return (REFERENCE_PREFIX + digest + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static String blobPath(String digest) {
+        return BLOB_ROOT + "/" + digest.substring(0, 2) + "/" + digest.substring(2, 4) + "/" + digest;
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-512 not available", e);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.model.DigestAlgorithm;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache of file contents on the local disk, keyed by digest. Files are stored at {@code <cacheDir>/<algorithm>/<first two digits>/<digest>} and are only added after their
+ * digest has been verified. Files are copied to the cache while they are being read, see {@link #fill(DigestAlgorithm, String, InputStream)}. When the total size exceeds the byte budget, the least recently used files are deleted. Files left in the cache directory by a previous run are picked up again; as they may have been changed since, their digest is verified when
+ * they are first opened.
+ */
+@Slf4j
+class ContentDiskCache {
+    private static final Pattern HEX_DIGEST = Pattern.compile("[0-9a-f]{8,}");
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final long size;
+        private volatile long lastAccess;
+        private volatile boolean verified;
+    }
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    private final AtomicLong accessClock = new AtomicLong();
+
+    ContentDiskCache(Path cacheDir, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(cacheDir);
+        loadExistingEntries();
+    }
+
+    /**
+     * @return the byte budget of the cache
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param algorithm the digest algorithm
+     * @param digest    the digest of the file
+     * @return whether files with this digest can be cached
+     */
+    boolean isCacheable(DigestAlgorithm algorithm, String digest) {
+        if (algorithm == null || digest == null || !HEX_DIGEST.matcher(digest.toLowerCase()).matches()) {
+            return false;
+        }
+        try {
+            newMessageDigest(algorithm);
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param algorithm the digest algorithm
+     * @param digest    the digest of the file
+     * @return whether the file with the given digest is in the cache
+     */
+    boolean contains(DigestAlgorithm algorithm, String digest) {
+        return entries.containsKey(pathFor(algorithm, digest));
+    }
+
+    /**
+     * Opens the cached file with the given digest.
+     *
+     * @param algorithm the digest algorithm
+     * @param digest    the digest of the file
+     * @return the contents of the file, or {@code null} if it is not in the cache, or if the cached file does not have the size it had when it was added or, for a file from a previous run,
+     * does not have the digest, in which case it is removed
+     * @throws IOException if the file could not be opened or read
+     */
+    InputStream open(DigestAlgorithm algorithm, String digest) throws IOException {
+        var path = pathFor(algorithm, digest);
+        var entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            if (Files.size(path) != entry.size) {
+                log.warn("Removing cached file {}, which has been truncated or overwritten", path);
+                remove(path, entry);
+                return null;
+            }
+            if (!entry.verified && !verify(path, algorithm, digest)) {
+                log.warn("Removing cached file {}, whose digest does not match", path);
+                remove(path, entry);
+                return null;
+            }
+            entry.verified = true;
+            var is = Files.newInputStream(path);
+            entry.lastAccess = accessClock.incrementAndGet();
+            return is;
+        }
+        catch (NoSuchFileException e) {
+            // Evicted in the meantime
+            return null;
+        }
+    }
+
+    /**
+     * Wraps the contents so that they are copied to the cache while the caller reads them. The first bytes are therefore available right away, instead of after the whole file has been copied.
+     * The file is added to the cache when the caller has read it to the end and its digest matches. It is not added if the caller closes the stream early or skips, if the digest does not
+     * match, or if the file exceeds the byte budget on its own; in the last case copying stops as soon as the budget is exceeded. A failure to write to the cache never fails the read.
+     *
+     * @param algorithm the digest algorithm
+     * @param digest    the expected digest of the file
+     * @param contents  the contents of the file; closed when the returned stream is closed
+     * @return the contents of the file
+     */
+    InputStream fill(DigestAlgorithm algorithm, String digest, InputStream contents) {
+        var path = pathFor(algorithm, digest);
+        try {
+            Files.createDirectories(path.getParent());
+            var tempFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                return new CacheFillingInputStream(contents, path, tempFile, newMessageDigest(algorithm), digest);
+            }
+            catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tempFile);
+                throw e;
+            }
+        }
+        catch (IOException e) {
+            log.debug("Not caching {}", path, e);
+            return contents;
+        }
+    }
+
+    private void add(Path path, Path tempFile, long size) throws IOException {
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        var previous = entries.put(path, new Entry(size, accessClock.incrementAndGet(), true));
+        sizeInBytes.addAndGet(size - (previous == null ? 0 : previous.size));
+        evict(path);
+    }
+
+    /*
+     * Copies what is read to a temporary file, and adds that to the cache when the end of the contents is reached.
+     */
+    private class CacheFillingInputStream extends FilterInputStream {
+        private final Path path;
+        private final Path tempFile;
+        private final MessageDigest messageDigest;
+        private final String expectedDigest;
+        private OutputStream out;
+        private long size;
+
+        CacheFillingInputStream(InputStream contents, Path path, Path tempFile, MessageDigest messageDigest, String expectedDigest) throws IOException {
+            super(contents);
+            this.path = path;
+            this.tempFile = tempFile;
+            this.messageDigest = messageDigest;
+            this.expectedDigest = expectedDigest;
+            this.out = Files.newOutputStream(tempFile);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var n = in.read(b, off, len);
+            if (out == null) {
+                return n;
+            }
+            if (n == -1) {
+                complete();
+            }
+            else if (n > 0) {
+                copy(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // The skipped bytes are not copied, so the file cannot be cached anymore
+            abort();
+            return in.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                abort();
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        private void copy(byte[] b, int off, int n) {
+            size += n;
+            if (size > maxBytes) {
+                abort();
+                return;
+            }
+            messageDigest.update(b, off, n);
+            try {
+                out.write(b, off, n);
+            }
+            catch (IOException e) {
+                log.debug("Could not write {} to the cache", path, e);
+                abort();
+            }
+        }
+
+        private void complete() {
+            var finished = out;
+            out = null;
+            try {
+                finished.close();
+                var actualDigest = HexFormat.of().formatHex(messageDigest.digest());
+                if (actualDigest.equalsIgnoreCase(expectedDigest)) {
+                    add(path, tempFile, size);
+                }
+                else {
+                    // The caller's fixity check reports the mismatch
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+            catch (IOException e) {
+                log.debug("Could not add {} to the cache", path, e);
+                deleteTempFile();
+            }
+        }
+
+        private void abort() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                log.debug("Could not close temporary cache file {}", tempFile, e);
+            }
+            finally {
+                out = null;
+                deleteTempFile();
+            }
+        }
+
+        private void deleteTempFile() {
+            try {
+                Files.deleteIfExists(tempFile);
+            }
+            catch (IOException e) {
+                // Deleted on the next start
+                log.debug("Could not delete temporary cache file {}", tempFile, e);
+            }
+        }
+    }
+
+    private synchronized void evict(Path keep) {
+        if (sizeInBytes.get() <= maxBytes) {
+            return;
+        }
+        var candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (var candidate : candidates) {
+            if (sizeInBytes.get() <= maxBytes) {
+                break;
+            }
+            if (!candidate.getKey().equals(keep)) {
+                remove(candidate.getKey(), candidate.getValue());
+            }
+        }
+    }
+
+    private void remove(Path path, Entry entry) {
+        if (!entries.remove(path, entry)) {
+            return;
+        }
+        sizeInBytes.addAndGet(-entry.size);
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e) {
+            // E.g. still open on a platform that does not allow deleting open files; it is picked up again on the next start
+            log.debug("Could not delete cache file {}", path, e);
+        }
+    }
+
+    private void loadExistingEntries() throws IOException {
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            var existing = files.filter(Files::isRegularFile).toList();
+            for (var file : existing) {
+                if (file.getFileName().toString().endsWith(".tmp") || !isCacheFile(file)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                entries.put(file, new Entry(Files.size(file), Files.getLastModifiedTime(file).toMillis(), false));
+                sizeInBytes.addAndGet(Files.size(file));
+            }
+        }
+        // Make accesses in this run more recent than any file from a previous run
+        accessClock.set(entries.values().stream().mapToLong(e -> e.lastAccess).max().orElse(0L));
+        evict(null);
+    }
+
+    /*
+     * Whether the file is at <cacheDir>/<algorithm>/<first two digits>/<digest>; anything else cannot be opened and would only take up budget.
+     */
+    private boolean isCacheFile(Path file) {
+        var relative = cacheDir.relativize(file);
+        if (relative.getNameCount() != 3) {
+            return false;
+        }
+        var digest = relative.getFileName().toString();
+        return HEX_DIGEST.matcher(digest).matches() && digest.startsWith(relative.getName(1).toString());
+    }
+
+    private static boolean verify(Path path, DigestAlgorithm algorithm, String digest) throws IOException {
+        var messageDigest = newMessageDigest(algorithm);
+        try (var in = new DigestInputStream(Files.newInputStream(path), messageDigest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(messageDigest.digest()).equalsIgnoreCase(digest);
+    }
+
+    private Path pathFor(DigestAlgorithm algorithm, String digest) {
+        var normalized = digest.toLowerCase();
+        return cacheDir.resolve(algorithm.getOcflName()).resolve(normalized.substring(0, 2)).resolve(normalized);
+    }
+
+    private static MessageDigest newMessageDigest(DigestAlgorithm algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm.getJavaStandardName());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException("Digest algorithm not supported: " + algorithm.getOcflName(), e);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ocfl.api.DigestAlgorithmRegistry;
+import io.ocfl.api.model.DigestAlgorithm;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Warms the content disk cache for the head version of an object when its inventory is read, so that the content files that are likely to be read next are on the local disk by the time they are
+ * needed. Reading a file from an archived layer also opens that layer's archive, so with a {@link PooledZipArchiveProvider} the archive handles are warm as well. Each file is read through the
+ * {@link WorkerContext}, as the prefetch runs on a thread that has no database session of its own. Prefetching is best effort: failures are logged as warnings and otherwise ignored.
+ *
+ * <p>
+ * Only inventories in an object root or in a version directory start a prefetch; others, such as the inventory of a mutable head, do not. A prefetch reads at most a fraction of the cache's
+ * budget, so that one large object cannot evict the rest of the cache. An object is usually read right before it is written, so a prefetch is cancelled as soon as anything in its object
+ * root is written, see {@link #cancel(String)}.
+ * </p>
+ */
+@Slf4j
+class ContentPrefetcher {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String INVENTORY_SUFFIX = "/inventory.json";
+    private static final Pattern VERSION_DIRECTORY = Pattern.compile("v\\d+");
+    // A prefetch reads at most this fraction of the budget of the cache
+    private static final int BUDGET_FRACTION = 4;
+
+    private final ContentDiskCache contentDiskCache;
+    private final Executor executor;
+    private final WorkerContext workerContext;
+    private final RetrieverFactory retrieverFactory;
+    // The object roots for which a prefetch is in progress, with a flag to cancel it
+    private final Map<String, AtomicBoolean> inProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a retriever for a content file; reading the file through it to the end fills the cache.
+     */
+    interface RetrieverFactory {
+        LayeredStorageOcflFileRetriever create(String filePath, DigestAlgorithm algorithm, String digest);
+    }
+
+    ContentPrefetcher(ContentDiskCache contentDiskCache, Executor executor, WorkerContext workerContext, RetrieverFactory retrieverFactory) {
+        this.contentDiskCache = contentDiskCache;
+        this.executor = executor;
+        this.workerContext = workerContext;
+        this.retrieverFactory = retrieverFactory;
+    }
+
+    /**
+     * Starts prefetching the content of the head version of the object, if the file is the inventory in an object root or version directory.
+     *
+     * @param inventoryPath the path of the inventory that was read
+     * @param inventory     the contents of the inventory
+     */
+    void inventoryRead(String inventoryPath, byte[] inventory) {
+        if (!inventoryPath.endsWith(INVENTORY_SUFFIX) || isInExtensions(inventoryPath)) {
+            return;
+        }
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(inventory);
+        }
+        catch (IOException e) {
+            log.debug("Not prefetching for unparsable inventory {}", inventoryPath, e);
+            return;
+        }
+        var head = root.path("head").asText(null);
+        var algorithmName = root.path("digestAlgorithm").asText(null);
+        if (head == null || algorithmName == null) {
+            return;
+        }
+        var algorithm = DigestAlgorithmRegistry.getAlgorithm(algorithmName);
+        if (algorithm == null) {
+            return;
+        }
+        var objectRoot = objectRootOf(inventoryPath, head);
+        var cancelled = new AtomicBoolean();
+        if (inProgress.putIfAbsent(objectRoot, cancelled) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    prefetch(objectRoot, root, head, algorithm, cancelled);
+                }
+                finally {
+                    inProgress.remove(objectRoot, cancelled);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            inProgress.remove(objectRoot, cancelled);
+            log.warn("Prefetch for {} rejected", objectRoot, e);
+        }
+    }
+
+    /**
+     * Cancels the prefetches for the objects that a write affects: the object the path is in, or the objects below it if it is a directory above object roots. A file that is being read is read
+     * to the end.
+     *
+     * @param path the path that is about to be written, moved or deleted
+     */
+    void cancel(String path) {
+        inProgress.forEach((objectRoot, cancelled) -> {
+            if (path.equals(objectRoot) || path.startsWith(objectRoot + "/") || path.isEmpty() || objectRoot.startsWith(path + "/")) {
+                cancelled.set(true);
+            }
+        });
+    }
+
+    private void prefetch(String objectRoot, JsonNode root, String head, DigestAlgorithm algorithm, AtomicBoolean cancelled) {
+        var manifest = root.path("manifest");
+        var state = root.path("versions").path(head).path("state");
+        var digests = state.fieldNames();
+        long remainingBytes = contentDiskCache.getMaxBytes() / BUDGET_FRACTION;
+        while (digests.hasNext() && !cancelled.get()) {
+            var digest = digests.next();
+            var contentPaths = manifest.path(digest);
+            if (!contentPaths.isArray() || contentPaths.isEmpty() || !contentDiskCache.isCacheable(algorithm, digest) || contentDiskCache.contains(algorithm, digest)) {
+                continue;
+            }
+            var filePath = objectRoot + "/" + contentPaths.get(0).asText();
+            var budget = remainingBytes;
+            try {
+                long read = workerContext.call(() -> {
+                    try (var is = retrieverFactory.create(filePath, algorithm, digest).retrieveFile()) {
+                        // Reading the file to the end fills the cache; closing it before the end does not
+                        return readUpTo(is, budget + 1);
+                    }
+                });
+                if (read > budget) {
+                    log.debug("Prefetch budget for {} used up at {}", objectRoot, filePath);
+                    return;
+                }
+                remainingBytes -= read;
+                log.trace("Prefetched {}", filePath);
+            }
+            catch (IOException | RuntimeException e) {
+                log.warn("Could not prefetch {}", filePath, e);
+            }
+        }
+    }
+
+    private static long readUpTo(InputStream is, long maxBytes) throws IOException {
+        var buffer = new byte[8192];
+        long total = 0;
+        int n;
+        while (total < maxBytes && (n = is.read(buffer, 0, (int) Math.min(buffer.length, maxBytes - total))) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static boolean isInExtensions(String inventoryPath) {
+        return inventoryPath.startsWith("extensions/") || inventoryPath.contains("/extensions/");
+    }
+
+    /*
+     * The inventory is either in the object root or in a version directory (named after a version, e.g. "v3") directly below it. The inventory in version directory vN has head vN, which tells it
+     * apart from the inventory of an object whose root directory happens to be named like a version.
+     */
+    private static String objectRootOf(String inventoryPath, String head) {
+        var directory = inventoryPath.substring(0, inventoryPath.length() - INVENTORY_SUFFIX.length());
+        var lastSlash = directory.lastIndexOf('/');
+        var directoryName = directory.substring(lastSlash + 1);
+        if (lastSlash >= 0 && directoryName.equals(head) && VERSION_DIRECTORY.matcher(directoryName).matches()) {
+            return directory.substring(0, lastSlash);
+        }
+        return directory;
+    }
+}
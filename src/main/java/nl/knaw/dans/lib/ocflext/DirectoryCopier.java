@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies a directory out of an item store file by file, with up to the configured number of files copied in parallel. Only the copying of bytes runs on the worker threads: the directory is
+ * listed and every file is opened on the calling thread, because the item store may need the database session of that thread to look up a file. At most {@code parallelism} files per call are
+ * open at the same time. The worker threads are kept until {@link #close()}.
+ */
+class DirectoryCopier implements Closeable {
+    private final ItemStore itemStore;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    DirectoryCopier(ItemStore itemStore, int parallelism) {
+        this.itemStore = itemStore;
+        this.parallelism = parallelism;
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            var thread = new Thread(runnable, "directory-copier-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void copyDirectoryOutOf(String source, Path destination) throws IOException {
+        var files = new ArrayList<String>();
+        Files.createDirectories(destination);
+        for (Item item : itemStore.listRecursive(source)) {
+            if (item.getType() == Item.Type.Directory) {
+                Files.createDirectories(destination.resolve(relativize(source, item.getPath())));
+            }
+            else {
+                files.add(item.getPath());
+            }
+        }
+        var slots = new Semaphore(parallelism);
+        var failed = new AtomicBoolean();
+        var copies = new ArrayList<Future<?>>();
+        try {
+            for (var file : files) {
+                slots.acquire();
+                if (failed.get()) {
+                    // The failure is rethrown by awaitAll
+                    slots.release();
+                    break;
+                }
+                var target = destination.resolve(relativize(source, file));
+                InputStream in = null;
+                try {
+                    Files.createDirectories(target.getParent());
+                    in = Util.openFile(itemStore, file);
+                    copies.add(executor.submit(copyTask(in, target, slots, failed)));
+                }
+                catch (IOException | RuntimeException e) {
+                    slots.release();
+                    if (in != null) {
+                        in.close();
+                    }
+                    throw e;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + source);
+        }
+        finally {
+            awaitAll(copies);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static Callable<Void> copyTask(InputStream in, Path target, Semaphore slots, AtomicBoolean failed) {
+        return () -> {
+            try (in) {
+                Files.copy(in, target);
+                return null;
+            }
+            catch (IOException | RuntimeException e) {
+                failed.set(true);
+                throw e;
+            }
+            finally {
+                slots.release();
+            }
+        };
+    }
+
+    /*
+     * Waits for all copies, also when the caller is already failing, so that no copy is still writing to the destination after this returns. At most parallelism copies are in progress, so
+     * this does not take long, and an interrupt is only passed on afterward. Rethrows the first failure.
+     */
+    private static void awaitAll(List<Future<?>> copies) throws IOException {
+        Throwable firstFailure = null;
+        var interrupted = false;
+        for (var copy : copies) {
+            while (true) {
+                try {
+                    copy.get();
+                    break;
+                }
+                catch (ExecutionException e) {
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause();
+                    }
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (firstFailure instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (firstFailure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (firstFailure != null) {
+            throw new IOException(firstFailure);
+        }
+    }
+
+    private static String relativize(String directory, String path) {
+        return directory.isEmpty() ? path : path.substring(directory.length() + 1);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import lombok.Value;
+
+/**
+ * A file that failed the fixity audit of a {@link FixityAuditor}.
+ */
+@Value
+public class FixityAuditFailure {
+    /**
+     * The storage path of the object root.
+     */
+    String objectRoot;
+
+    /**
+     * The storage path of the file that failed: a content file, or the inventory if it could not be read or did not match its sidecar.
+     */
+    String path;
+
+    /**
+     * What went wrong, e.g. the expected and actual digest.
+     */
+    String message;
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The result of a run of a {@link FixityAuditor}. It covers only the objects audited in this run, not those that were skipped because a previous run had already audited them.
+ */
+@Value
+public class FixityAuditReport {
+    /**
+     * The number of objects whose inventory and content files were all checked in this run.
+     */
+    long objectsAudited;
+
+    /**
+     * The number of objects that were skipped because the checkpoint file listed them as audited.
+     */
+    long objectsSkipped;
+
+    /**
+     * The number of content files whose digest was checked.
+     */
+    long filesVerified;
+
+    /**
+     * The total number of content bytes read.
+     */
+    long bytesRead;
+
+    /**
+     * The files that failed the audit.
+     */
+    List<FixityAuditFailure> failures;
+
+    /**
+     * @return whether no file failed the audit
+     */
+    public boolean isClean() {
+        return failures.isEmpty();
+    }
+}
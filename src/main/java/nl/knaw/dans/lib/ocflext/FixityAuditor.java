@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ocfl.api.DigestAlgorithmRegistry;
+import io.ocfl.api.exception.FixityCheckException;
+import io.ocfl.api.exception.OcflIOException;
+import io.ocfl.api.exception.OcflNoSuchFileException;
+import io.ocfl.api.model.DigestAlgorithm;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the fixity of every content file of every object in a {@link LayeredStorage} against the digests in the object's inventory, and the inventory itself against its sidecar.
+ *
+ * <p>
+ * Objects are audited in batches. The inventories of a batch are read in parallel, and then the content files of the batch are read in parallel, in path order, so that the files of an object and of a directory are read together. The reads bypass the inventory and content caches
+ * of the storage, so that the audit checks what is actually stored and does not flush the caches. They run on worker threads, through the {@link LayeredStorage.Builder#workerContext(WorkerContext)
+ * worker context} of the storage.
+ * </p>
+ *
+ * <p>
+ * The audit can be throttled to a maximum number of bytes per second, and can write a checkpoint file, with one line per object that was audited without failures. A run with an existing checkpoint
+ * file skips the objects listed in it, so that an interrupted audit can be resumed; objects with failures are audited again.
+ * </p>
+ */
+@Slf4j
+public class FixityAuditor {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int READ_BUFFER_SIZE = LayeredStorageOcflFileRetriever.READ_BUFFER_SIZE;
+
+    private final LayeredStorage storage;
+    private final int parallelism;
+    private final int batchSize;
+    private final long maxBytesPerSecond;
+    private final Path checkpointFile;
+
+    /**
+     * Builder for {@link FixityAuditor}.
+     */
+    public static class Builder {
+        private LayeredStorage storage;
+        private int parallelism = 4;
+        private int batchSize = 1000;
+        private long maxBytesPerSecond = 0;
+        private Path checkpointFile;
+
+        /**
+         * @param storage the storage to audit; required
+         * @return this builder
+         */
+        public Builder storage(LayeredStorage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * @param parallelism the number of worker threads, i.e., the maximum number of files read in parallel; default is 4
+         * @return this builder
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param batchSize the number of objects audited together; larger batches mean longer runs of files read in path order, but more memory for the file lists; default is 1000
+         * @return this builder
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param maxBytesPerSecond the maximum rate at which content is read, over all workers together; default is 0, i.e., unlimited
+         * @return this builder
+         */
+        public Builder maxBytesPerSecond(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param checkpointFile the file to record audited objects in, and to read them from when resuming; default is {@code null}, i.e., no checkpoints
+         * @return this builder
+         */
+        public Builder checkpointFile(Path checkpointFile) {
+            this.checkpointFile = checkpointFile;
+            return this;
+        }
+
+        public FixityAuditor build() {
+            if (storage == null) {
+                throw new IllegalStateException("storage is required");
+            }
+            if (parallelism < 1 || batchSize < 1) {
+                throw new IllegalStateException("parallelism and batchSize must be positive");
+            }
+            return new FixityAuditor(this);
+        }
+    }
+
+    private FixityAuditor(Builder builder) {
+        this.storage = builder.storage;
+        this.parallelism = builder.parallelism;
+        this.batchSize = builder.batchSize;
+        this.maxBytesPerSecond = builder.maxBytesPerSecond;
+        this.checkpointFile = builder.checkpointFile;
+    }
+
+    private record FileCheck(String objectRoot, String path, DigestAlgorithm algorithm, String digest) {
+    }
+
+    /*
+     * The state of one run.
+     */
+    private class Run {
+        private final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        private final ConcurrentLinkedQueue<FixityAuditFailure> failures = new ConcurrentLinkedQueue<>();
+        private final Set<String> failedObjects = ConcurrentHashMap.newKeySet();
+        private final WorkerContext workerContext = storage.getWorkerContext();
+        private final AtomicLong objectsAudited = new AtomicLong();
+        private final AtomicLong filesVerified = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final Object throttleLock = new Object();
+        // Guarded by throttleLock
+        private long nextReadNanos = System.nanoTime();
+        private final BufferedWriter checkpoint;
+
+        Run(BufferedWriter checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        void auditBatch(List<String> objectRoots) throws IOException, InterruptedException {
+            var inventoryFutures = new ArrayList<Future<List<FileCheck>>>();
+            for (var objectRoot : objectRoots) {
+                inventoryFutures.add(executor.submit(() -> readInventory(objectRoot)));
+            }
+            // Sorted, so that files that are stored near each other are read one after the other
+            var checksByPath = new TreeMap<String, FileCheck>();
+            for (int i = 0; i < objectRoots.size(); i++) {
+                var checks = getResult(inventoryFutures.get(i));
+                if (checks.isEmpty()) {
+                    objectDone(objectRoots.get(i));
+                    continue;
+                }
+                checks.forEach(check -> checksByPath.put(check.path(), check));
+            }
+            // Counted after deduplication, as a path listed under several digests is checked only once
+            var remainingPerObject = new HashMap<String, AtomicInteger>();
+            for (var check : checksByPath.values()) {
+                remainingPerObject.computeIfAbsent(check.objectRoot(), objectRoot -> new AtomicInteger()).incrementAndGet();
+            }
+            var fileFutures = new ArrayList<Future<?>>();
+            for (var check : checksByPath.values()) {
+                fileFutures.add(executor.submit(() -> {
+                    verify(check);
+                    if (remainingPerObject.get(check.objectRoot()).decrementAndGet() == 0) {
+                        objectDone(check.objectRoot());
+                    }
+                    return null;
+                }));
+            }
+            for (var future : fileFutures) {
+                getResult(future);
+            }
+            log.info("Fixity audit: {} objects audited, {} files verified, {} failures", objectsAudited.get(), filesVerified.get(), failures.size());
+        }
+
+        private List<FileCheck> readInventory(String objectRoot) throws IOException {
+            return workerContext.call(() -> fileChecksOf(objectRoot));
+        }
+
+        /*
+         * Returns the content files to check; an object whose inventory cannot be read or parsed is reported as a failure and has nothing left to check.
+         */
+        private List<FileCheck> fileChecksOf(String objectRoot) {
+            var inventoryPath = objectRoot + "/inventory.json";
+            try {
+                var bytes = storage.readBypassingCaches(inventoryPath);
+                JsonNode root = MAPPER.readTree(bytes);
+                var algorithm = DigestAlgorithmRegistry.getAlgorithm(root.path("digestAlgorithm").asText(""));
+                if (algorithm == null) {
+                    fail(objectRoot, inventoryPath, "Unknown digest algorithm: " + root.path("digestAlgorithm").asText());
+                    return List.of();
+                }
+                checkSidecar(objectRoot, inventoryPath, bytes, algorithm);
+                var checks = new ArrayList<FileCheck>();
+                var manifest = root.path("manifest").fields();
+                while (manifest.hasNext()) {
+                    var entry = manifest.next();
+                    for (var contentPath : entry.getValue()) {
+                        checks.add(new FileCheck(objectRoot, objectRoot + "/" + contentPath.asText(), algorithm, entry.getKey()));
+                    }
+                }
+                return checks;
+            }
+            catch (IOException | RuntimeException e) {
+                fail(objectRoot, inventoryPath, "Could not read inventory: " + e.getMessage());
+                return List.of();
+            }
+        }
+
+        private void checkSidecar(String objectRoot, String inventoryPath, byte[] inventory, DigestAlgorithm algorithm) throws IOException {
+            var sidecarPath = inventoryPath + "." + algorithm.getOcflName();
+            String expected;
+            try {
+                var sidecar = new String(storage.readBypassingCaches(sidecarPath), StandardCharsets.UTF_8).trim();
+                expected = sidecar.split("\\s+", 2)[0];
+            }
+            catch (OcflNoSuchFileException e) {
+                fail(objectRoot, sidecarPath, "Inventory sidecar is missing");
+                return;
+            }
+            String actual;
+            try {
+                actual = HexFormat.of().formatHex(MessageDigest.getInstance(algorithm.getJavaStandardName()).digest(inventory));
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IOException("Digest algorithm not supported: " + algorithm.getOcflName(), e);
+            }
+            if (!actual.equalsIgnoreCase(expected)) {
+                fail(objectRoot, inventoryPath, "Expected " + algorithm.getOcflName() + " digest " + expected + ", but was " + actual);
+            }
+        }
+
+        private void verify(FileCheck check) throws InterruptedIOException {
+            try {
+                workerContext.call(() -> {
+                    readAndCheckFixity(check);
+                    return null;
+                });
+                filesVerified.incrementAndGet();
+            }
+            catch (FixityCheckException e) {
+                fail(check.objectRoot(), check.path(), e.getMessage());
+            }
+            catch (OcflNoSuchFileException e) {
+                fail(check.objectRoot(), check.path(), "File is missing");
+            }
+            catch (InterruptedIOException e) {
+                throw e;
+            }
+            catch (IOException | RuntimeException e) {
+                fail(check.objectRoot(), check.path(), "Could not read file: " + e.getMessage());
+            }
+        }
+
+        private void readAndCheckFixity(FileCheck check) throws IOException {
+            var buffer = new byte[READ_BUFFER_SIZE];
+            try (var is = storage.createAuditRetriever(check.path(), check.algorithm(), check.digest()).retrieveFile()) {
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    throttle(n);
+                    bytesRead.addAndGet(n);
+                }
+                is.checkFixity();
+            }
+        }
+
+        private void fail(String objectRoot, String path, String message) {
+            failedObjects.add(objectRoot);
+            failures.add(new FixityAuditFailure(objectRoot, path, message));
+        }
+
+        /*
+         * Reserves the time slot for the bytes just read on a shared schedule, and waits until it has started. This keeps the average rate over all workers at or below the maximum.
+         */
+        private void throttle(int bytes) throws InterruptedIOException {
+            if (maxBytesPerSecond <= 0) {
+                return;
+            }
+            long waitNanos;
+            synchronized (throttleLock) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextReadNanos);
+                nextReadNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond;
+                waitNanos = start - now;
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling the fixity audit");
+                }
+            }
+        }
+
+        /*
+         * Called once all checks of the object are done, so that all its failures have been recorded.
+         */
+        private void objectDone(String objectRoot) throws IOException {
+            objectsAudited.incrementAndGet();
+            // An object with failures is not checkpointed, so that it is audited again on resume
+            if (checkpoint != null && !failedObjects.contains(objectRoot)) {
+                synchronized (checkpoint) {
+                    checkpoint.write(objectRoot);
+                    checkpoint.newLine();
+                    checkpoint.flush();
+                }
+            }
+        }
+
+        private <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+            try {
+                return future.get();
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Audits all objects in the storage, except those listed in the checkpoint file, if any.
+     *
+     * @return the report of this run
+     */
+    public FixityAuditReport run() {
+        try {
+            var completed = readCheckpoint();
+            var skipped = 0L;
+            try (var checkpoint = checkpointFile == null ? null : Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                var objectRoots = storage.streamObjectRoots(false)) {
+                var run = new Run(checkpoint);
+                try {
+                    var batch = new ArrayList<String>(batchSize);
+                    for (String objectRoot : (Iterable<String>) objectRoots::iterator) {
+                        if (completed.contains(objectRoot)) {
+                            skipped++;
+                            continue;
+                        }
+                        batch.add(objectRoot);
+                        if (batch.size() == batchSize) {
+                            run.auditBatch(batch);
+                            batch.clear();
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        run.auditBatch(batch);
+                    }
+                }
+                finally {
+                    run.executor.shutdownNow();
+                }
+                return new FixityAuditReport(run.objectsAudited.get(), skipped, run.filesVerified.get(), run.bytesRead.get(), List.copyOf(run.failures));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw OcflIOException.from(new InterruptedIOException("Interrupted during fixity audit"));
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+
+    private Set<String> readCheckpoint() throws IOException {
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return Set.of();
+        }
+        // The last line may be incomplete if the previous run was killed while writing it; it then matches no object root
+        try (var lines = Files.lines(checkpointFile, StandardCharsets.UTF_8)) {
+            var completed = new HashSet<String>();
+            lines.filter(line -> !line.isBlank()).forEach(completed::add);
+            return completed;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the bytes of inventory files and their sidecars, keyed by path. The cache is weighted by the size of the entries: when the total size exceeds the maximum, the least recently
+ * used entries are evicted.
+ *
+ * <p>
+ * The cache must be told about every change to the item store through the {@code invalidate} methods. A value read from the store is only added if the path was not invalidated since the read was
+ * started (see {@link #generation()}), so that a read that races with a change cannot put stale bytes in the cache. Invalidations are recorded per path and per directory, so a change to one
+ * object does not keep the inventories of other objects out of the cache.
+ * </p>
+ */
+class InventoryCache {
+    private static final String INVENTORY_FILE_NAME = "inventory.json";
+    // The number of recorded invalidations above which they are forgotten, and values read before that are not added anymore
+    private static final int MAX_INVALIDATIONS = 10_000;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // The same paths as entries, sorted, so that the entries below a directory are a range
+    private final TreeSet<String> sortedPaths = new TreeSet<>();
+    // The generation of the last invalidation of a file path, or of a directory path with a trailing slash ("" for the root)
+    private final Map<String, Long> invalidations = new HashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Values read before this generation are not added, as the invalidations since then were forgotten
+    private long oldestKnownGeneration;
+    private long sizeInBytes;
+
+    InventoryCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param path the path of a file
+     * @return whether the file is an inventory or an inventory sidecar, i.e. whether it is cached
+     */
+    static boolean isCacheable(String path) {
+        var fileName = path.substring(path.lastIndexOf('/') + 1);
+        return fileName.equals(INVENTORY_FILE_NAME) || fileName.startsWith(INVENTORY_FILE_NAME + ".");
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #put(String, byte[], long)} after reading the value from the store
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    synchronized byte[] get(String path) {
+        var bytes = entries.get(path);
+        if (bytes == null) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds the bytes of a file, unless the file or one of its parent directories was invalidated since {@code generation} was obtained, or the file is too large to cache.
+     *
+     * @param path       the path of the file
+     * @param bytes      the contents of the file; must not be modified afterward
+     * @param generation the generation obtained before the file was read
+     */
+    synchronized void put(String path, byte[] bytes, long generation) {
+        if (bytes.length > maxBytes || invalidatedSince(path, generation)) {
+            return;
+        }
+        var previous = entries.put(path, bytes);
+        if (previous != null) {
+            sizeInBytes -= previous.length;
+        }
+        else {
+            sortedPaths.add(path);
+        }
+        sizeInBytes += bytes.length;
+        var iterator = entries.entrySet().iterator();
+        while (sizeInBytes > maxBytes) {
+            var eldest = iterator.next();
+            sizeInBytes -= eldest.getValue().length;
+            sortedPaths.remove(eldest.getKey());
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    synchronized void invalidate(String path) {
+        recordInvalidation(path);
+        remove(path);
+    }
+
+    synchronized void invalidate(Collection<String> paths) {
+        for (var path : paths) {
+            recordInvalidation(path);
+            remove(path);
+        }
+    }
+
+    /**
+     * Invalidates the directory and everything below it.
+     *
+     * @param directory the directory
+     */
+    synchronized void invalidateDirectory(String directory) {
+        var prefix = directory.isEmpty() ? "" : directory + "/";
+        recordInvalidation(prefix);
+        // The paths that start with "<directory>/" are the ones from "<directory>/" up to, but not including, "<directory>0", as '0' follows '/'
+        var below = directory.isEmpty() ? sortedPaths : sortedPaths.subSet(prefix, directory + "0");
+        for (var path : below) {
+            sizeInBytes -= entries.remove(path).length;
+        }
+        below.clear();
+    }
+
+    synchronized InventoryCacheStatistics getStatistics() {
+        return new InventoryCacheStatistics(hits.get(), misses.get(), evictions.get(), entries.size(), sizeInBytes);
+    }
+
+    private void recordInvalidation(String key) {
+        if (invalidations.size() >= MAX_INVALIDATIONS) {
+            invalidations.clear();
+            oldestKnownGeneration = generation.get() + 1;
+        }
+        invalidations.put(key, generation.incrementAndGet());
+    }
+
+    private boolean invalidatedSince(String path, long generation) {
+        if (generation < oldestKnownGeneration || isAfter(invalidations.get(path), generation) || isAfter(invalidations.get(""), generation)) {
+            return true;
+        }
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (isAfter(invalidations.get(path.substring(0, slash + 1)), generation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAfter(Long invalidation, long generation) {
+        return invalidation != null && invalidation > generation;
+    }
+
+    private void remove(String path) {
+        var removed = entries.remove(path);
+        if (removed != null) {
+            sizeInBytes -= removed.length;
+            sortedPaths.remove(path);
+        }
+    }
+}
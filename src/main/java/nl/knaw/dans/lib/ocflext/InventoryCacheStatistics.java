@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import lombok.Value;
+
+/**
+ * Snapshot of the statistics of the inventory cache of a {@link LayeredStorage}.
+ */
+@Value
+public class InventoryCacheStatistics {
+    /**
+     * The number of reads of an inventory or sidecar that were served from the cache.
+     */
+    long hits;
+
+    /**
+     * The number of reads of an inventory or sidecar that had to go to the item store.
+     */
+    long misses;
+
+    /**
+     * The number of entries that were evicted to stay within the maximum size.
+     */
+    long evictions;
+
+    /**
+     * The number of entries currently in the cache.
+     */
+    int entryCount;
+
+    /**
+     * The total size of the entries currently in the cache, in bytes.
+     */
+    long sizeInBytes;
+
+    /**
+     * @return the fraction of reads that were served from the cache, or 0 if there were no reads yet
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression codec for inventories that are stored in the layer database. See {@link InventoryCodecs} for how the codec of stored content is recorded.
+ */
+public interface InventoryCodec {
+
+    /**
+     * @return the id of the codec, recorded in the header of stored content
+     */
+    byte getCodecId();
+
+    /**
+     * The variant of the codec, recorded in the header of stored content together with the codec id. For example, a dictionary-based codec uses the id of its dictionary, so that content
+     * compressed with an older dictionary can still be decompressed after a new dictionary has been trained.
+     *
+     * @return the variant; 0 if the codec has no variants
+     */
+    default int getVariant() {
+        return 0;
+    }
+
+    /**
+     * @return a human-readable name, for logging and reports
+     */
+    String getName();
+
+    /**
+     * @param out the stream to write compressed data to
+     * @return a stream that compresses what is written to it; closing it closes {@code out}
+     * @throws IOException if the compressor could not be initialized
+     */
+    OutputStream newCompressingStream(OutputStream out) throws IOException;
+
+    /**
+     * @param in the stream to read compressed data from
+     * @return a stream that decompresses what is read from {@code in}; closing it closes {@code in}
+     * @throws IOException if the decompressor could not be initialized
+     */
+    InputStream newDecompressingStream(InputStream in) throws IOException;
+}
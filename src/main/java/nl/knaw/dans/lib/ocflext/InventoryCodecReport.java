@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import lombok.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compares {@link InventoryCodec}s on a set of sample inventories: compression ratio and compression and decompression time.
+ */
+public class InventoryCodecReport {
+
+    @Value
+    public static class Entry {
+        String codecName;
+        int samples;
+        long originalBytes;
+        long compressedBytes;
+        long compressNanos;
+        long decompressNanos;
+
+        /**
+         * @return original size divided by compressed size
+         */
+        public double getRatio() {
+            return compressedBytes == 0 ? 0 : (double) originalBytes / compressedBytes;
+        }
+    }
+
+    /**
+     * Compresses and decompresses every sample with every codec.
+     *
+     * @param codecs  the codecs to compare
+     * @param samples the inventories to use
+     * @return one entry per codec, in the order of {@code codecs}
+     * @throws IOException if compression or decompression fails, or a sample does not survive the round trip
+     */
+    public static List<Entry> create(Collection<? extends InventoryCodec> codecs, Collection<byte[]> samples) throws IOException {
+        var entries = new ArrayList<Entry>();
+        for (var codec : codecs) {
+            long originalBytes = 0;
+            long compressedBytes = 0;
+            long compressNanos = 0;
+            long decompressNanos = 0;
+            for (var sample : samples) {
+                var out = new ByteArrayOutputStream(sample.length);
+                long start = System.nanoTime();
+                try (var compressing = codec.newCompressingStream(out)) {
+                    compressing.write(sample);
+                }
+                compressNanos += System.nanoTime() - start;
+                var compressed = out.toByteArray();
+
+                start = System.nanoTime();
+                byte[] decompressed;
+                try (var decompressing = codec.newDecompressingStream(new ByteArrayInputStream(compressed))) {
+                    decompressed = decompressing.readAllBytes();
+                }
+                decompressNanos += System.nanoTime() - start;
+                if (!Arrays.equals(sample, decompressed)) {
+                    throw new IOException("Round trip with codec " + codec.getName() + " changed the content");
+                }
+                originalBytes += sample.length;
+                compressedBytes += compressed.length;
+            }
+            entries.add(new Entry(codec.getName(), samples.size(), originalBytes, compressedBytes, compressNanos, decompressNanos));
+        }
+        return entries;
+    }
+
+    /**
+     * @param entries the entries to format
+     * @return a table with one line per codec
+     */
+    public static String format(List<Entry> entries) {
+        var sb = new StringBuilder(String.format("%-24s %8s %14s %14s %8s %14s %14s%n", "codec", "samples", "original", "compressed", "ratio", "compress-us", "decompress-us"));
+        for (var entry : entries) {
+            sb.append(String.format("%-24s %8d %14d %14d %8.2f %14d %14d%n",
+                entry.getCodecName(),
+                entry.getSamples(),
+                entry.getOriginalBytes(),
+                entry.getCompressedBytes(),
+                entry.getRatio(),
+                entry.getCompressNanos() / 1000,
+                entry.getDecompressNanos() / 1000));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of {@link InventoryCodec}s known to a content manager: one codec to compress new content with, and any number of codecs to decompress stored content with.
+ *
+ * <p>
+ * Stored content is self-describing. Gzip content is recognized by the gzip magic number and is stored without a header, so that content stored before codecs were introduced can still be read.
+ * Content compressed with any other codec starts with an 8-byte header: the bytes {@code 0xDA 'N' 'S'}, the codec id, and the codec variant as a big-endian 32-bit integer.
+ * </p>
+ *
+ * <p>
+ * The zstd codecs need {@code com.github.luben:zstd-jni}, which is an optional dependency of this library. Without it, only gzip is available and reading zstd-compressed content fails with an
+ * {@link IOException} that says so.
+ * </p>
+ */
+public class InventoryCodecs {
+    private static final byte[] MAGIC = { (byte) 0xDA, 'N', 'S' };
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final boolean ZSTD_AVAILABLE = isClassAvailable("com.github.luben.zstd.ZstdInputStream");
+
+    private final InventoryCodec encoder;
+    private final Map<Long, InventoryCodec> decoders = new HashMap<>();
+
+    /**
+     * Creates a set of codecs. Gzip content can always be decompressed, and plain zstd content too if zstd-jni is on the classpath; dictionary-based codecs must be passed in explicitly.
+     *
+     * @param encoder  the codec to compress new content with
+     * @param decoders additional codecs to decompress stored content with, e.g. dictionary-based codecs with dictionaries that are no longer used for compression
+     */
+    public InventoryCodecs(InventoryCodec encoder, Collection<? extends InventoryCodec> decoders) {
+        this.encoder = encoder;
+        var all = new ArrayList<InventoryCodec>(List.of(new GzipInventoryCodec()));
+        if (ZSTD_AVAILABLE) {
+            all.add(new ZstdInventoryCodec());
+        }
+        all.addAll(decoders);
+        all.add(encoder);
+        for (var codec : all) {
+            this.decoders.put(key(codec.getCodecId(), codec.getVariant()), codec);
+        }
+    }
+
+    /**
+     * @return codecs that compress new content with gzip, as was done before codecs were introduced
+     */
+    public static InventoryCodecs gzip() {
+        return new InventoryCodecs(new GzipInventoryCodec(), List.of());
+    }
+
+    /**
+     * @return whether zstd-jni is on the classpath, so that the zstd codecs can be used
+     */
+    public static boolean isZstdAvailable() {
+        return ZSTD_AVAILABLE;
+    }
+
+    public InventoryCodec getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * @param stored stored content
+     * @return whether the content is gzip-compressed
+     */
+    public static boolean isGzip(byte[] stored) {
+        return stored.length >= 2 && (stored[0] & 0xff) == GZIP_MAGIC_1 && (stored[1] & 0xff) == GZIP_MAGIC_2;
+    }
+
+    /**
+     * @param out the stream to write the stored form to
+     * @return a stream that compresses what is written to it with the encoder, preceded by a header if needed
+     * @throws IOException if the header could not be written or the compressor could not be initialized
+     */
+    public OutputStream newEncodingStream(OutputStream out) throws IOException {
+        if (encoder.getCodecId() != GzipInventoryCodec.CODEC_ID) {
+            out.write(MAGIC);
+            out.write(encoder.getCodecId());
+            out.write(ByteBuffer.allocate(4).putInt(encoder.getVariant()).array());
+        }
+        return encoder.newCompressingStream(out);
+    }
+
+    /**
+     * @param in the stream to read the stored form from
+     * @return a stream that decompresses what is read from {@code in} with the codec recorded in its header
+     * @throws IOException if the header is not recognized, the codec is not known, or the decompressor could not be initialized
+     */
+    public InputStream newDecodingStream(InputStream in) throws IOException {
+        var pushback = new PushbackInputStream(in, HEADER_LENGTH);
+        var header = pushback.readNBytes(HEADER_LENGTH);
+        if (isGzip(header)) {
+            pushback.unread(header);
+            return decoders.get(key(GzipInventoryCodec.CODEC_ID, 0)).newDecompressingStream(pushback);
+        }
+        if (header.length < HEADER_LENGTH || header[0] != MAGIC[0] || header[1] != MAGIC[1] || header[2] != MAGIC[2]) {
+            throw new IOException("Stored content is neither gzip-compressed nor starts with a codec header");
+        }
+        byte codecId = header[MAGIC.length];
+        int variant = ByteBuffer.wrap(header, MAGIC.length + 1, 4).getInt();
+        var codec = decoders.get(key(codecId, variant));
+        if (codec == null && !ZSTD_AVAILABLE && (codecId == ZstdInventoryCodec.CODEC_ID || codecId == ZstdDictionaryInventoryCodec.CODEC_ID)) {
+            throw new IOException("Stored content is zstd-compressed, but zstd-jni (com.github.luben:zstd-jni) is not on the classpath");
+        }
+        if (codec == null) {
+            throw new IOException(String.format("No codec configured for codec id %d, variant %s", codecId, Integer.toUnsignedString(variant)));
+        }
+        return codec.newDecompressingStream(pushback);
+    }
+
+    private static boolean isClassAvailable(String className) {
+        try {
+            Class.forName(className, false, InventoryCodecs.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static long key(byte codecId, int variant) {
+        return ((long) codecId << 32) | (variant & 0xffffffffL);
+    }
+}
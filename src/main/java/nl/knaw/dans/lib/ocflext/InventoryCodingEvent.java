@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for the compression or decompression of content stored in the layer database by {@link StoreInventoryDbBackedContentManager}.
+ */
+@Name("nl.knaw.dans.ocflext.InventoryCoding")
+@Label("Inventory Coding")
+@Category({ "DANS", "OCFL Storage" })
+@Description("Compression or decompression of an inventory stored in the layer database")
+class InventoryCodingEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    @Description("compress or decompress")
+    String operation;
+
+    @Label("Path")
+    String path;
+
+    @Label("Original Bytes")
+    @DataAmount
+    long originalBytes;
+
+    @Label("Stored Bytes")
+    @DataAmount
+    long storedBytes;
+}
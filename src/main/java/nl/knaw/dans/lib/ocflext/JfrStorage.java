@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.OcflFileRetriever;
+import io.ocfl.api.io.FixityCheckInputStream;
+import io.ocfl.api.model.DigestAlgorithm;
+import io.ocfl.core.storage.common.Listing;
+import io.ocfl.core.storage.common.OcflObjectRootDirIterator;
+import io.ocfl.core.storage.common.Storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Decorator for a {@link Storage} that emits a JFR event ({@code nl.knaw.dans.ocflext.StorageOperation}) for every method call, with the path and, where applicable, the number of bytes read or
+ * written. For {@link #read(String)} and {@link OcflFileRetriever#retrieveRange(Long, Long)} the event lasts until the returned stream is closed and counts the bytes read from it. A call that
+ * fails is recorded as well, with the exception it failed with. The events cost next to nothing while they are not enabled in a recording.
+ */
+public class JfrStorage implements Storage {
+    private final Storage delegate;
+
+    /**
+     * @param delegate the storage to emit events for
+     */
+    public JfrStorage(Storage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public List<Listing> listDirectory(String directoryPath) {
+        return record("listDirectory", directoryPath, () -> delegate.listDirectory(directoryPath));
+    }
+
+    @Override
+    public List<Listing> listRecursive(String directoryPath) {
+        return record("listRecursive", directoryPath, () -> delegate.listRecursive(directoryPath));
+    }
+
+    @Override
+    public boolean directoryIsEmpty(String directoryPath) {
+        return record("directoryIsEmpty", directoryPath, () -> delegate.directoryIsEmpty(directoryPath));
+    }
+
+    @Override
+    public OcflObjectRootDirIterator iterateObjects() {
+        return record("iterateObjects", "", delegate::iterateObjects);
+    }
+
+    @Override
+    public boolean fileExists(String filePath) {
+        return record("fileExists", filePath, () -> delegate.fileExists(filePath));
+    }
+
+    @Override
+    public InputStream read(String filePath) {
+        return recordStream("read", filePath, () -> delegate.read(filePath));
+    }
+
+    @Override
+    public String readToString(String filePath) {
+        var event = new StorageOperationEvent();
+        event.begin();
+        try {
+            var content = delegate.readToString(filePath);
+            if (event.shouldCommit()) {
+                event.bytes = Util.utf8Length(content);
+            }
+            return content;
+        }
+        catch (RuntimeException e) {
+            event.exception = e.toString();
+            throw e;
+        }
+        finally {
+            commit(event, "readToString", filePath);
+        }
+    }
+
+    @Override
+    public OcflFileRetriever readLazy(String filePath, DigestAlgorithm algorithm, String digest) {
+        var retriever = delegate.readLazy(filePath, algorithm, digest);
+        return new OcflFileRetriever() {
+
+            @Override
+            public FixityCheckInputStream retrieveFile() {
+                return record("retrieveFile", filePath, retriever::retrieveFile);
+            }
+
+            @Override
+            public InputStream retrieveRange(Long startPosition, Long endPosition) {
+                return recordStream("retrieveRange", filePath, () -> retriever.retrieveRange(startPosition, endPosition));
+            }
+        };
+    }
+
+    @Override
+    public void write(String filePath, byte[] content, String mediaType) {
+        var event = new StorageOperationEvent();
+        event.begin();
+        try {
+            delegate.write(filePath, content, mediaType);
+            event.bytes = content.length;
+        }
+        catch (RuntimeException e) {
+            event.exception = e.toString();
+            throw e;
+        }
+        finally {
+            commit(event, "write", filePath);
+        }
+    }
+
+    @Override
+    public void createDirectories(String path) {
+        recordVoid("createDirectories", path, () -> delegate.createDirectories(path));
+    }
+
+    @Override
+    public void copyDirectoryOutOf(String source, Path destination) {
+        recordVoid("copyDirectoryOutOf", source, () -> delegate.copyDirectoryOutOf(source, destination));
+    }
+
+    @Override
+    public void copyFileInto(Path source, String destination, String mediaType) {
+        recordVoid("copyFileInto", destination, () -> delegate.copyFileInto(source, destination, mediaType));
+    }
+
+    @Override
+    public void copyFileInternal(String sourceFile, String destinationFile) {
+        recordVoid("copyFileInternal", destinationFile, () -> delegate.copyFileInternal(sourceFile, destinationFile));
+    }
+
+    @Override
+    public void moveDirectoryInto(Path source, String destination) {
+        recordVoid("moveDirectoryInto", destination, () -> delegate.moveDirectoryInto(source, destination));
+    }
+
+    @Override
+    public void moveDirectoryInternal(String source, String destination) {
+        recordVoid("moveDirectoryInternal", source, () -> delegate.moveDirectoryInternal(source, destination));
+    }
+
+    @Override
+    public void deleteDirectory(String path) {
+        recordVoid("deleteDirectory", path, () -> delegate.deleteDirectory(path));
+    }
+
+    @Override
+    public void deleteFile(String path) {
+        recordVoid("deleteFile", path, () -> delegate.deleteFile(path));
+    }
+
+    @Override
+    public void deleteFiles(Collection<String> paths) {
+        recordVoid("deleteFiles", paths.size() == 1 ? paths.iterator().next() : paths.size() + " files", () -> delegate.deleteFiles(paths));
+    }
+
+    @Override
+    public void deleteEmptyDirsDown(String path) {
+        recordVoid("deleteEmptyDirsDown", path, () -> delegate.deleteEmptyDirsDown(path));
+    }
+
+    @Override
+    public void deleteEmptyDirsUp(String path) {
+        recordVoid("deleteEmptyDirsUp", path, () -> delegate.deleteEmptyDirsUp(path));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private static <T> T record(String operation, String path, Supplier<T> call) {
+        var event = new StorageOperationEvent();
+        event.begin();
+        try {
+            return call.get();
+        }
+        catch (RuntimeException e) {
+            event.exception = e.toString();
+            throw e;
+        }
+        finally {
+            commit(event, operation, path);
+        }
+    }
+
+    private static void recordVoid(String operation, String path, Runnable call) {
+        record(operation, path, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private static InputStream recordStream(String operation, String path, Supplier<InputStream> open) {
+        var event = new StorageOperationEvent();
+        if (!event.isEnabled()) {
+            return open.get();
+        }
+        event.begin();
+        InputStream in;
+        try {
+            in = open.get();
+        }
+        catch (RuntimeException e) {
+            event.exception = e.toString();
+            commit(event, operation, path);
+            throw e;
+        }
+        return new RecordingInputStream(in, event, operation, path);
+    }
+
+    private static void commit(StorageOperationEvent event, String operation, String path) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.path = path;
+            event.commit();
+        }
+    }
+
+    private static class RecordingInputStream extends FilterInputStream {
+        private final StorageOperationEvent event;
+        private final String operation;
+        private final String path;
+        private long bytes;
+        private boolean committed;
+
+        private RecordingInputStream(InputStream in, StorageOperationEvent event, String operation, String path) {
+            super(in);
+            this.event = event;
+            this.operation = operation;
+            this.path = path;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b != -1) {
+                    bytes++;
+                }
+                return b;
+            }
+            catch (IOException | RuntimeException e) {
+                event.exception = e.toString();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytes += n;
+                }
+                return n;
+            }
+            catch (IOException | RuntimeException e) {
+                event.exception = e.toString();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            catch (IOException | RuntimeException e) {
+                if (event.exception == null) {
+                    event.exception = e.toString();
+                }
+                throw e;
+            }
+            finally {
+                if (!committed) {
+                    committed = true;
+                    event.bytes = bytes;
+                    commit(event, operation, path);
+                }
+            }
+        }
+    }
+}
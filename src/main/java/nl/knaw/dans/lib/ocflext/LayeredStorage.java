@@ -23,35 +23,395 @@ import io.ocfl.api.model.DigestAlgorithm;
 import io.ocfl.core.storage.common.Listing;
 import io.ocfl.core.storage.common.OcflObjectRootDirIterator;
 import io.ocfl.core.storage.common.Storage;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import nl.knaw.dans.layerstore.Item;
 import nl.knaw.dans.layerstore.ItemStore;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.FileUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-@AllArgsConstructor
+/**
+ * Implementation of the ocfl-java {@link Storage} interface on top of a layered {@link ItemStore}. Use the {@link Builder} to enable the optional optimizations.
+ */
 @Slf4j
 public class LayeredStorage implements Storage {
     private final ItemStore itemStore;
+    private final PathBloomFilter pathFilter;
+    private final ContentAddressedStore contentAddressedStore;
+    private final ObjectRootIndex objectRootIndex;
+    private final InventoryCache inventoryCache;
+    private final ContentDiskCache contentDiskCache;
+    private final DirectoryCopier directoryCopier;
+    private final ReadScheduler readScheduler;
+    private final ContentPrefetcher contentPrefetcher;
+    private final boolean readOnly;
+    private final WorkerContext workerContext;
+    private volatile PathSnapshot snapshot;
+
+    /**
+     * Builder for {@link LayeredStorage}.
+     */
+    public static class Builder {
+        private ItemStore itemStore;
+        private boolean negativeLookupFilter = false;
+        private long expectedPaths = 1_000_000L;
+        private double falsePositiveProbability = 0.01;
+        private boolean contentAddressed = false;
+        private long contentAddressedMinSize = 64 * 1024L;
+        private boolean objectRootIndex = false;
+        private boolean inventoryCache = false;
+        private long inventoryCacheMaxBytes = 64 * 1024 * 1024L;
+        private Path contentCacheDir;
+        private long contentCacheMaxBytes = 1024 * 1024 * 1024L;
+        private int copyOutParallelism = 1;
+        private int maxConcurrentReads = 0;
+        private Duration maxReadWait = Duration.ofMinutes(5);
+        private Executor prefetchExecutor;
+        private boolean readOnlySnapshot = false;
+        private WorkerContext workerContext = WorkerContext.NONE;
+
+        /**
+         * @param itemStore the item store to use; required
+         * @return this builder
+         */
+        public Builder itemStore(ItemStore itemStore) {
+            this.itemStore = itemStore;
+            return this;
+        }
+
+        /**
+         * Enables an in-memory Bloom filter of all known item paths, so that {@link #fileExists(String)} and {@link #read(String)} can answer for most non-existing paths without querying the
+         * layer database. The filter is built from the layer database when the storage is created and is updated by every write and move that goes through the storage. This is only correct if
+         * no other process or {@code LayeredStorage} instance adds items to the same item store.
+         *
+         * @param negativeLookupFilter whether to enable the filter; default is {@code false}
+         * @return this builder
+         */
+        public Builder negativeLookupFilter(boolean negativeLookupFilter) {
+            this.negativeLookupFilter = negativeLookupFilter;
+            return this;
+        }
+
+        /**
+         * @param expectedPaths the number of paths the negative lookup filter is sized for; default is 1,000,000. If the store holds or grows beyond this number of paths, the filter answers
+         *                      fewer lookups without querying the database, but remains correct.
+         * @return this builder
+         */
+        public Builder expectedPaths(long expectedPaths) {
+            this.expectedPaths = expectedPaths;
+            return this;
+        }
+
+        /**
+         * @param falsePositiveProbability the probability that the negative lookup filter fails to rule out a non-existing path, so that the database must be queried; default is 0.01
+         * @return this builder
+         */
+        public Builder falsePositiveProbability(double falsePositiveProbability) {
+            this.falsePositiveProbability = falsePositiveProbability;
+            return this;
+        }
+
+        /**
+         * Enables content-addressed storage of content files. Content files that are copied or moved into the storage are stored once per distinct content, keyed by their SHA-512 digest, and
+         * the content file itself becomes a small reference to the stored content. Reads through the storage resolve references transparently. Note that, with this option enabled, the archived
+         * layers on their own are no longer a complete OCFL storage root. Enabling it on an existing store is fine; disabling it again is not, as the references would no longer be resolved.
+         *
+         * @param contentAddressed whether to enable content-addressed storage; default is {@code false}
+         * @return this builder
+         */
+        public Builder contentAddressed(boolean contentAddressed) {
+            this.contentAddressed = contentAddressed;
+            return this;
+        }
+
+        /**
+         * @param contentAddressedMinSize content files smaller than this number of bytes are stored as is, even if content-addressed storage is enabled; default is 64 KiB
+         * @return this builder
+         */
+        public Builder contentAddressedMinSize(long contentAddressedMinSize) {
+            this.contentAddressedMinSize = contentAddressedMinSize;
+            return this;
+        }
+
+        /**
+         * Enables an in-memory index of OCFL object roots, so that {@link #iterateObjects()} (and thereby listing the objects in the repository) does not need to walk the directory tree. The
+         * index is loaded by walking the tree once, the first time it is needed, and is then kept up to date by the writes, moves and deletes that go through the storage. This is only correct if
+         * no other process or {@code LayeredStorage} instance changes the same item store.
+         *
+         * @param objectRootIndex whether to enable the index; default is {@code false}
+         * @return this builder
+         */
+        public Builder objectRootIndex(boolean objectRootIndex) {
+            this.objectRootIndex = objectRootIndex;
+            return this;
+        }
+
+        /**
+         * Enables an in-memory cache of inventory files and their sidecars, so that repeated access to the same object does not read (and, for inventories stored in the layer database,
+         * decompress) the inventory again. The cache is invalidated by the writes, moves and deletes that go through the storage. This is only correct if no other process or
+         * {@code LayeredStorage} instance changes the same item store. See {@link #getInventoryCacheStatistics()}.
+         *
+         * @param inventoryCache whether to enable the cache; default is {@code false}
+         * @return this builder
+         */
+        public Builder inventoryCache(boolean inventoryCache) {
+            this.inventoryCache = inventoryCache;
+            return this;
+        }
+
+        /**
+         * @param inventoryCacheMaxBytes the maximum total size of the cached files, in bytes; default is 64 MiB
+         * @return this builder
+         */
+        public Builder inventoryCacheMaxBytes(long inventoryCacheMaxBytes) {
+            this.inventoryCacheMaxBytes = inventoryCacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * Enables a read-through cache of file contents on the local disk for {@link #readLazy(String, DigestAlgorithm, String)}, so that repeated reads of a file from an archived layer do
+         * not have to open and decompress the archive again. Files are cached by digest, and only after the digest has been verified; the least recently used files are evicted when the cache
+         * exceeds {@link #contentCacheMaxBytes(long)}. A file is copied to the cache while it is read, and is only kept if it is read to the end. As OCFL content files never change, the cache
+         * needs no invalidation. The directory should be dedicated to the cache.
+         *
+         * @param contentCacheDir the directory to store the cached files in; default is {@code null}, i.e., no cache
+         * @return this builder
+         */
+        public Builder contentCacheDir(Path contentCacheDir) {
+            this.contentCacheDir = contentCacheDir;
+            return this;
+        }
+
+        /**
+         * @param contentCacheMaxBytes the maximum total size of the files in the content cache, in bytes; default is 1 GiB
+         * @return this builder
+         */
+        public Builder contentCacheMaxBytes(long contentCacheMaxBytes) {
+            this.contentCacheMaxBytes = contentCacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads used by {@link #copyDirectoryOutOf(String, Path)}. If this is greater than 1, the directory is copied file by file, with up to this number of files
+         * copied in parallel. The files are listed and opened on the calling thread, so that the worker threads only copy bytes and need no database session. The threads are kept until
+         * {@link #close()}. Otherwise, the copy is left to the item store.
+         *
+         * @param copyOutParallelism the maximum number of files to copy in parallel; default is 1
+         * @return this builder
+         */
+        public Builder copyOutParallelism(int copyOutParallelism) {
+            this.copyOutParallelism = copyOutParallelism;
+            return this;
+        }
+
+        /**
+         * Limits the number of files that are being opened for reading at the same time. Opening a file from an archived layer may mean opening or extracting the archive, which is where
+         * concurrent readers compete for the archive device. Opens beyond the limit wait in a queue, in which reads through {@link #read(String)} and {@link #readToString(String)} (inventories
+         * and other metadata) go before lazy reads of content files. Only opening is limited: a slot is held while the file is opened, not while its stream is read, so the number of streams
+         * being read at the same time is not limited. The limit applies to the item store as a whole, not per layer or per archive. See {@link #getReadSchedulerStatistics()}.
+         *
+         * @param maxConcurrentReads the maximum number of files being opened at the same time; default is 0, i.e., unlimited
+         * @return this builder
+         */
+        public Builder maxConcurrentReads(int maxConcurrentReads) {
+            this.maxConcurrentReads = maxConcurrentReads;
+            return this;
+        }
+
+        /**
+         * @param maxReadWait how long a read waits for a slot to open its file (see {@link #maxConcurrentReads(int)}) before it fails with an {@link io.ocfl.api.exception.OcflIOException}; default is 5
+         *                    minutes
+         * @return this builder
+         */
+        public Builder maxReadWait(Duration maxReadWait) {
+            this.maxReadWait = maxReadWait;
+            return this;
+        }
+
+        /**
+         * Enables prefetching of content into the content cache (see {@link #contentCacheDir(Path)}, which is required for this option). When an object's inventory is read from the store,
+         * the content files of the object's head version that are not in the cache yet are read into it in the background, so that subsequent reads of the object do not have to wait for
+         * each archived layer in turn. Reading a file from an archived layer also opens the layer's archive; if the item store uses a {@link PooledZipArchiveProvider}, the archive handle then
+         * stays open in its pool for the subsequent reads. The files of one object are prefetched sequentially, in a single task per object, and each file is read through the
+         * {@link #workerContext(WorkerContext)}. A prefetch reads at most a quarter of the {@link #contentCacheMaxBytes(long) budget of the cache}, and it is cancelled when the object is
+         * written. Only inventories in an object root or a version directory start a prefetch. On Java 21 or later, an executor that starts a virtual thread per task is a good fit.
+         *
+         * @param prefetchExecutor the executor to run the prefetch tasks on; default is {@code null}, i.e., no prefetching
+         * @return this builder
+         */
+        public Builder prefetchExecutor(Executor prefetchExecutor) {
+            this.prefetchExecutor = prefetchExecutor;
+            return this;
+        }
+
+        /**
+         * Makes the storage read-only and answers all lookups and listings from an immutable in-memory snapshot of the item paths, so that only reading file contents still goes to the item
+         * store. The snapshot is loaded when the storage is created, and replaced atomically by {@link #reloadSnapshot()}, e.g. after a new layer was added by the node that writes to the item
+         * store. All operations that would change the storage throw an {@link UnsupportedOperationException}. The snapshot already covers what {@link #negativeLookupFilter(boolean)} and
+         * {@link #objectRootIndex(boolean)} do, so these cannot be combined with it.
+         *
+         * @param readOnlySnapshot whether to enable read-only mode; default is {@code false}
+         * @return this builder
+         */
+        public Builder readOnlySnapshot(boolean readOnlySnapshot) {
+            this.readOnlySnapshot = readOnlySnapshot;
+            return this;
+        }
+
+        /**
+         * Sets the context in which item store calls run on threads other than the caller's, e.g. to bind a Hibernate session to the worker threads of {@link LayeredStorage#streamObjectRoots(boolean)}. A
+         * {@link nl.knaw.dans.layerstore.LayeredItemStore} needs this for anything that runs on other threads, which includes prefetching and the workers of a {@link FixityAuditor}.
+         *
+         * @param workerContext the worker context; default is {@link WorkerContext#NONE}
+         * @return this builder
+         */
+        public Builder workerContext(WorkerContext workerContext) {
+            this.workerContext = workerContext;
+            return this;
+        }
+
+        public LayeredStorage build() {
+            if (itemStore == null) {
+                throw new IllegalStateException("itemStore is required");
+            }
+            if (prefetchExecutor != null && contentCacheDir == null) {
+                throw new IllegalStateException("prefetchExecutor requires contentCacheDir");
+            }
+            if (readOnlySnapshot && (negativeLookupFilter || objectRootIndex)) {
+                throw new IllegalStateException("readOnlySnapshot cannot be combined with negativeLookupFilter or objectRootIndex");
+            }
+            return new LayeredStorage(this);
+        }
+    }
+
+    /**
+     * Creates a {@link LayeredStorage} with the default settings.
+     *
+     * @param itemStore the item store to use
+     */
+    public LayeredStorage(ItemStore itemStore) {
+        this(new Builder().itemStore(itemStore));
+    }
+
+    private LayeredStorage(Builder builder) {
+        this.itemStore = builder.itemStore;
+        this.pathFilter = builder.negativeLookupFilter ? buildPathFilter(builder.expectedPaths, builder.falsePositiveProbability) : null;
+        this.contentAddressedStore = builder.contentAddressed ? new ContentAddressedStore(itemStore, builder.contentAddressedMinSize) : null;
+        this.objectRootIndex = builder.objectRootIndex ? new ObjectRootIndex(() -> new LayeredStorageOcflObjectRootDirIterator(itemStore)) : null;
+        this.inventoryCache = builder.inventoryCache ? new InventoryCache(builder.inventoryCacheMaxBytes) : null;
+        this.contentDiskCache = builder.contentCacheDir != null ? createContentDiskCache(builder.contentCacheDir, builder.contentCacheMaxBytes) : null;
+        this.readScheduler = builder.maxConcurrentReads > 0 ? new ReadScheduler(builder.maxConcurrentReads, builder.maxReadWait) : null;
+        this.contentPrefetcher = builder.prefetchExecutor != null ? new ContentPrefetcher(contentDiskCache, builder.prefetchExecutor, builder.workerContext, this::createRetriever) : null;
+        this.directoryCopier = builder.copyOutParallelism > 1 ? new DirectoryCopier(itemStore, builder.copyOutParallelism) : null;
+        this.readOnly = builder.readOnlySnapshot;
+        this.workerContext = builder.workerContext;
+        this.snapshot = readOnly ? loadSnapshot() : null;
+    }
+
+    private PathSnapshot loadSnapshot() {
+        try {
+            var loaded = PathSnapshot.load(itemStore);
+            log.debug("Loaded snapshot of {} paths", loaded.size());
+            return loaded;
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+
+    /**
+     * Reloads the snapshot of the item paths from the item store and replaces the current one. Lookups that are in progress complete against the old snapshot; later lookups see the new
+     * one. As the inventories in the store may have changed as well, the inventory cache is cleared.
+     *
+     * @throws IllegalStateException if the storage is not in read-only mode
+     */
+    public void reloadSnapshot() {
+        if (!readOnly) {
+            throw new IllegalStateException("Storage is not in read-only mode");
+        }
+        snapshot = loadSnapshot();
+        if (inventoryCache != null) {
+            inventoryCache.invalidateDirectory("");
+        }
+    }
+
+    private void requireWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Storage is read-only");
+        }
+    }
+
+    /*
+     * A prefetch of an object that is being written competes with the write and reads content that may be about to change
+     */
+    private void cancelPrefetches(String... paths) {
+        if (contentPrefetcher != null) {
+            for (var path : paths) {
+                contentPrefetcher.cancel(path);
+            }
+        }
+    }
+
+    private List<Item> listItems(String directoryPath) throws IOException {
+        var current = snapshot;
+        return current != null ? current.listDirectory(directoryPath) : itemStore.listDirectory(directoryPath);
+    }
+
+    private static ContentDiskCache createContentDiskCache(Path cacheDir, long maxBytes) {
+        try {
+            return new ContentDiskCache(cacheDir, maxBytes);
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+
+    /**
+     * @return the current number of files being opened and of reads waiting to open their file
+     * @throws IllegalStateException if the number of concurrent reads is not limited
+     */
+    public ReadSchedulerStatistics getReadSchedulerStatistics() {
+        if (readScheduler == null) {
+            throw new IllegalStateException("Limit on concurrent opens is not enabled");
+        }
+        return readScheduler.getStatistics();
+    }
+
+    /**
+     * @return the statistics of the inventory cache
+     * @throws IllegalStateException if the inventory cache is not enabled
+     */
+    public InventoryCacheStatistics getInventoryCacheStatistics() {
+        if (inventoryCache == null) {
+            throw new IllegalStateException("Inventory cache is not enabled");
+        }
+        return inventoryCache.getStatistics();
+    }
 
     @Override
     public List<Listing> listDirectory(String directoryPath)  {
         try {
-            return itemStore
-                .listDirectory(directoryPath)
+            return listItems(directoryPath)
                 .stream()
                 .map(item -> Util.fromItem(item, directoryPath))
                 .collect(Collectors.toList());
@@ -64,7 +424,8 @@ public class LayeredStorage implements Storage {
     @Override
     public List<Listing> listRecursive(String directoryPath) {
         try {
-            return itemStore.listRecursive(directoryPath)
+            var current = snapshot;
+            return (current != null ? current.listRecursive(directoryPath) : itemStore.listRecursive(directoryPath))
                 .stream()
                 .map(item -> Util.fromItem(item, directoryPath))
                 .collect(Collectors.toList());
@@ -76,26 +437,122 @@ public class LayeredStorage implements Storage {
 
     @Override
     public boolean directoryIsEmpty(String directoryPath) {
-        return listDirectory(directoryPath).isEmpty();
+        if (hasChildren(directoryPath)) {
+            return false;
+        }
+        if (!isChildlessDirectory(directoryPath)) {
+            throw new OcflNoSuchFileException("Directory does not exist: " + directoryPath);
+        }
+        return true;
     }
 
     @Override
     public OcflObjectRootDirIterator iterateObjects() {
+        var current = snapshot;
+        if (current != null) {
+            return new LayeredStorageOcflObjectRootDirIterator(itemStore, current.getObjectRoots());
+        }
+        if (objectRootIndex != null) {
+            return new LayeredStorageOcflObjectRootDirIterator(itemStore, objectRootIndex.getObjectRoots());
+        }
         return new LayeredStorageOcflObjectRootDirIterator(itemStore);
     }
 
+    /**
+     * Returns a spliterator over the OCFL object roots, for visiting all objects in parallel, e.g. with {@code StreamSupport.stream(storage.objectRootSpliterator(), true)}. Work is split by
+     * subtree of the storage layout. The item store must support concurrent use for this.
+     * <p>
+     * Unless a snapshot or an object root index is used, the spliterator queries the item store on the threads that consume it. For a {@link nl.knaw.dans.layerstore.LayeredItemStore} those
+     * threads need a database session: configure a {@link Builder#workerContext(WorkerContext) worker context} that provides one, or collect the object roots on the calling thread first. The
+     * same goes for whatever the caller does with the object roots on those threads.
+     * </p>
+     *
+     * @return a spliterator over the object roots
+     * @see #iterateObjects()
+     */
+    public Spliterator<String> objectRootSpliterator() {
+        var current = snapshot;
+        if (current != null) {
+            return current.getObjectRoots().spliterator();
+        }
+        if (objectRootIndex != null) {
+            return objectRootIndex.getObjectRoots().spliterator();
+        }
+        return new LayeredStorageObjectRootSpliterator(itemStore, workerContext);
+    }
+
+    /**
+     * @param parallel whether to return a parallel stream
+     * @return a stream of the OCFL object roots
+     * @see #objectRootSpliterator()
+     */
+    public Stream<String> streamObjectRoots(boolean parallel) {
+        return StreamSupport.stream(objectRootSpliterator(), parallel);
+    }
+
     @Override
     public boolean fileExists(String filePath) {
+        var current = snapshot;
+        if (current != null) {
+            return current.exists(filePath);
+        }
+        if (pathFilter != null && !pathFilter.mightContain(filePath)) {
+            return false;
+        }
         return itemStore.existsPathLike(filePath);
     }
 
     @Override
     public InputStream read(String filePath) {
-        if (!fileExists(filePath)) {
+        requireMightExist(filePath);
+        if (isInventoryRead(filePath)) {
+            return new ByteArrayInputStream(readInventory(filePath));
+        }
+        return readFromStore(filePath);
+    }
+
+    private void requireMightExist(String filePath) {
+        var current = snapshot;
+        if (current != null && !current.exists(filePath) || pathFilter != null && !pathFilter.mightContain(filePath)) {
             throw new OcflNoSuchFileException("File does not exist: " + filePath);
         }
+    }
+
+    private boolean isInventoryRead(String filePath) {
+        return (inventoryCache != null || contentPrefetcher != null) && InventoryCache.isCacheable(filePath);
+    }
+
+    private byte[] readInventory(String filePath) {
+        var bytes = inventoryCache == null ? null : inventoryCache.get(filePath);
+        if (bytes != null) {
+            // Any prefetch was started when the inventory was read from the store
+            return bytes;
+        }
+        var generation = inventoryCache == null ? 0L : inventoryCache.generation();
+        try (var is = readFromStore(filePath)) {
+            bytes = is.readAllBytes();
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+        if (inventoryCache != null) {
+            inventoryCache.put(filePath, bytes, generation);
+        }
+        if (contentPrefetcher != null) {
+            contentPrefetcher.inventoryRead(filePath, bytes);
+        }
+        return bytes;
+    }
+
+    private InputStream readFromStore(String filePath) {
+        var is = readScheduler == null
+            ? Util.openFile(itemStore, filePath)
+            : readScheduler.open(filePath, ReadScheduler.Priority.INTERACTIVE, () -> Util.openFile(itemStore, filePath));
+        if (contentAddressedStore == null) {
+            return is;
+        }
         try {
-            return itemStore.readFile(filePath);
+            return contentAddressedStore.resolve(filePath, is);
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -104,12 +561,12 @@ public class LayeredStorage implements Storage {
 
     @Override
     public String readToString(String filePath) {
-        try {
-            StringWriter writer = new StringWriter();
-            try (InputStream is = read(filePath)) {
-                IOUtils.copy(is, writer, StandardCharsets.UTF_8);
-            }
-            return writer.toString();
+        if (isInventoryRead(filePath)) {
+            requireMightExist(filePath);
+            return new String(readInventory(filePath), StandardCharsets.UTF_8);
+        }
+        try (InputStream is = read(filePath)) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -118,16 +575,47 @@ public class LayeredStorage implements Storage {
 
     @Override
     public OcflFileRetriever readLazy(String filePath, DigestAlgorithm algorithm, String digest) {
-        return new LayeredStorageOcflFileRetriever(itemStore, filePath, algorithm, digest);
+        return createRetriever(filePath, algorithm, digest);
+    }
+
+    private LayeredStorageOcflFileRetriever createRetriever(String filePath, DigestAlgorithm algorithm, String digest) {
+        return new LayeredStorageOcflFileRetriever(itemStore, filePath, algorithm, digest, contentAddressedStore, contentDiskCache, readScheduler);
+    }
+
+    /*
+     * Access for FixityAuditor: reads that bypass the inventory cache, the content cache and prefetching, as an audit must check what is actually in the store and must not flush the caches.
+     */
+    byte[] readBypassingCaches(String filePath) throws IOException {
+        requireMightExist(filePath);
+        try (var is = readFromStore(filePath)) {
+            return is.readAllBytes();
+        }
+    }
+
+    LayeredStorageOcflFileRetriever createAuditRetriever(String filePath, DigestAlgorithm algorithm, String digest) {
+        return new LayeredStorageOcflFileRetriever(itemStore, filePath, algorithm, digest, contentAddressedStore, null, readScheduler);
+    }
+
+    WorkerContext getWorkerContext() {
+        return workerContext;
     }
 
     @Override
     public void write(String filePath, byte[] content, String mediaType) {
+        requireWritable();
+        cancelPrefetches(filePath);
         if (fileExists(filePath)) {
             throw new OcflFileAlreadyExistsException("File already exists: " + filePath);
         }
         try {
+            rememberPath(filePath);
             itemStore.writeFile(filePath, new ByteArrayInputStream(content));
+            if (objectRootIndex != null) {
+                objectRootIndex.fileWritten(filePath);
+            }
+            if (inventoryCache != null) {
+                inventoryCache.invalidate(filePath);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -136,7 +624,10 @@ public class LayeredStorage implements Storage {
 
     @Override
     public void createDirectories(String path) {
+        requireWritable();
+        cancelPrefetches(path);
         try {
+            rememberPath(path);
             itemStore.createDirectories(path);
         }
         catch (IOException e) {
@@ -147,7 +638,15 @@ public class LayeredStorage implements Storage {
     @Override
     public void copyDirectoryOutOf(String source, Path destination) {
         try {
-            itemStore.copyDirectoryOutOf(source, destination);
+            if (directoryCopier != null) {
+                directoryCopier.copyDirectoryOutOf(source, destination);
+            }
+            else {
+                itemStore.copyDirectoryOutOf(source, destination);
+            }
+            if (contentAddressedStore != null) {
+                contentAddressedStore.materializeReferences(source, destination);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -156,8 +655,27 @@ public class LayeredStorage implements Storage {
 
     @Override
     public void copyFileInto(Path source, String destination, String mediaType) {
+        requireWritable();
+        cancelPrefetches(destination);
         try {
-            itemStore.writeFile(destination, Files.newInputStream(source));
+            rememberPath(destination);
+            if (contentAddressedStore != null && contentAddressedStore.isEligible(destination, Files.size(source))) {
+                // Content files are never namaste files, so the object root index is not affected
+                var digest = contentAddressedStore.store(source, null);
+                itemStore.writeFile(destination, new ByteArrayInputStream(ContentAddressedStore.reference(digest)));
+                contentAddressedStore.referencesWritten(Map.of(destination, digest));
+                return;
+            }
+            // Unwrapped and unbuffered, so that a file channel based copy is possible if the item store uses Files.copy or InputStream.transferTo
+            try (var in = Files.newInputStream(source)) {
+                itemStore.writeFile(destination, in);
+            }
+            if (objectRootIndex != null) {
+                objectRootIndex.fileWritten(destination);
+            }
+            if (inventoryCache != null) {
+                inventoryCache.invalidate(destination);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -166,8 +684,23 @@ public class LayeredStorage implements Storage {
 
     @Override
     public void copyFileInternal(String sourceFile, String destinationFile) {
+        requireWritable();
+        cancelPrefetches(destinationFile);
         try {
-            itemStore.writeFile(destinationFile, itemStore.readFile(sourceFile));
+            rememberPath(destinationFile);
+            // A reference to content-addressed content is copied as is
+            try (var in = Util.openFile(itemStore, sourceFile)) {
+                itemStore.writeFile(destinationFile, in);
+            }
+            if (contentAddressedStore != null) {
+                contentAddressedStore.fileCopied(sourceFile, destinationFile);
+            }
+            if (objectRootIndex != null) {
+                objectRootIndex.fileWritten(destinationFile);
+            }
+            if (inventoryCache != null) {
+                inventoryCache.invalidate(destinationFile);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -176,19 +709,48 @@ public class LayeredStorage implements Storage {
 
     @Override
     public void moveDirectoryInto(Path source, String destination) {
+        requireWritable();
+        cancelPrefetches(destination);
         if (directoryExists(destination)) {
             throw new OcflFileAlreadyExistsException("Directory already exists: " + destination);
         }
+        ContentAddressedStore.PreparedDirectory prepared = null;
         try {
-            itemStore.moveDirectoryInto(source, destination);
+            var toMove = source;
+            if (contentAddressedStore != null) {
+                // The caller's directory is left intact until the move has succeeded
+                prepared = contentAddressedStore.prepareForMoveInto(source, destination);
+                toMove = prepared.path();
+            }
+            List<String> movedPaths = pathFilter != null || objectRootIndex != null ? pathsAfterMoveInto(source, destination) : List.of();
+            rememberPath(destination);
+            movedPaths.forEach(this::rememberPath);
+            itemStore.moveDirectoryInto(toMove, destination);
+            if (prepared != null) {
+                contentAddressedStore.referencesWritten(prepared.references());
+                FileUtils.deleteDirectory(source.toFile());
+            }
+            if (objectRootIndex != null) {
+                objectRootIndex.filesMovedInto(movedPaths);
+            }
+            if (inventoryCache != null) {
+                inventoryCache.invalidateDirectory(destination);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
         }
+        finally {
+            if (prepared != null) {
+                FileUtils.deleteQuietly(prepared.path().toFile());
+            }
+        }
     }
 
     @Override
     public void moveDirectoryInternal(String source, String destination) {
+        requireWritable();
+        cancelPrefetches(source, destination);
         if (!directoryExists(source)) {
             throw new OcflNoSuchFileException("Directory does not exist: " + source);
         }
@@ -196,7 +758,18 @@ public class LayeredStorage implements Storage {
             throw new OcflFileAlreadyExistsException("Directory already exists: " + destination);
         }
         try {
+            rememberMovedItems(source, destination);
             itemStore.moveDirectoryInternal(source, destination);
+            if (contentAddressedStore != null) {
+                contentAddressedStore.directoryMoved(source, destination);
+            }
+            if (objectRootIndex != null) {
+                objectRootIndex.directoryMoved(source, destination);
+            }
+            if (inventoryCache != null) {
+                inventoryCache.invalidateDirectory(source);
+                inventoryCache.invalidateDirectory(destination);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -205,8 +778,19 @@ public class LayeredStorage implements Storage {
 
     @Override
     public void deleteDirectory(String path) {
+        requireWritable();
+        cancelPrefetches(path);
         try {
             itemStore.deleteDirectory(path);
+            if (contentAddressedStore != null) {
+                contentAddressedStore.directoryDeleted(path);
+            }
+            if (objectRootIndex != null) {
+                objectRootIndex.directoryDeleted(path);
+            }
+            if (inventoryCache != null) {
+                inventoryCache.invalidateDirectory(path);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -220,8 +804,20 @@ public class LayeredStorage implements Storage {
 
     @Override
     public void deleteFiles(Collection<String> paths) {
+        requireWritable();
+        cancelPrefetches(paths.toArray(String[]::new));
         try {
             itemStore.deleteFiles(new ArrayList<>(paths));
+            if (contentAddressedStore != null) {
+                // Markers last, so that a file never outlives its marker; a marker that outlives its file is ignored
+                contentAddressedStore.filesDeleted(paths);
+            }
+            if (objectRootIndex != null) {
+                objectRootIndex.filesDeleted(paths);
+            }
+            if (inventoryCache != null) {
+                inventoryCache.invalidate(paths);
+            }
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
@@ -230,21 +826,31 @@ public class LayeredStorage implements Storage {
 
     @Override
     public void deleteEmptyDirsDown(String path) {
+        requireWritable();
         try {
-            List<Item> containedItems;
-            containedItems = new ArrayList<>(itemStore.listRecursive(path));
-            // Sort by descending path length, so that we start with the deepest directories
-            containedItems.sort((i1, i2) -> Integer.compare(i2.getPath().length(), i1.getPath().length()));
-            for (Item item : containedItems) {
-                if (item.getType().equals(Item.Type.Directory)) {
-                    if (directoryIsEmpty(item.getPath())) {
-                        itemStore.deleteDirectory(item.getPath());
-                    }
+            /*
+             * A single pass over the tree collects the directories and marks every directory that (indirectly) contains a file. Of the remaining, file-free directories only the topmost ones
+             * are deleted, each with one recursive delete, instead of checking and deleting every directory separately. The whole tree is needed, so it is fetched with a single query.
+             */
+            var directories = new ArrayList<String>();
+            var nonEmptyDirectories = new HashSet<String>();
+            for (Item item : itemStore.listRecursive(path)) {
+                if (item.getType() == Item.Type.Directory) {
+                    directories.add(item.getPath());
+                }
+                else {
+                    markAncestorsNonEmpty(item.getPath(), path, nonEmptyDirectories);
                 }
             }
-            // The starting path itself is also eligible for deletion
-            if (directoryExists(path) && directoryIsEmpty(path)) {
+            if (!nonEmptyDirectories.contains(path)) {
+                // The starting path itself is also eligible for deletion, which takes all empty subdirectories with it
                 itemStore.deleteDirectory(path);
+                return;
+            }
+            for (String directory : directories) {
+                if (!nonEmptyDirectories.contains(directory) && nonEmptyDirectories.contains(parentOf(directory))) {
+                    itemStore.deleteDirectory(directory);
+                }
             }
         }
         catch (IOException e) {
@@ -252,39 +858,159 @@ public class LayeredStorage implements Storage {
         }
     }
 
+    private static void markAncestorsNonEmpty(String filePath, String root, Set<String> nonEmptyDirectories) {
+        var directory = parentOf(filePath);
+        while (nonEmptyDirectories.add(directory) && directory.length() > root.length()) {
+            directory = parentOf(directory);
+        }
+    }
+
     @Override
     public void deleteEmptyDirsUp(String path) {
+        requireWritable();
+        /*
+         * Find the topmost ancestor that contains nothing but the (empty) directory we came from, with one listing per level, and delete it with a single recursive delete.
+         */
+        String topmostEmpty = null;
         var current = path;
         while (!current.isEmpty()) {
-            if (!directoryExists(current)) {
-                break;
+            List<Item> items;
+            try {
+                items = itemStore.listDirectory(current);
             }
-            if (directoryIsEmpty(current)) {
-                deleteDirectory(current);
-            }
-            else {
+            catch (NoSuchFileException e) {
                 break;
             }
-            int lastSlash = current.lastIndexOf('/');
-            if (lastSlash < 0) {
+            catch (IOException e) {
+                throw OcflIOException.from(e);
+            }
+            var containsOnlyEmptyChild = topmostEmpty != null && items.size() == 1 && items.get(0).getPath().equals(topmostEmpty);
+            if (!items.isEmpty() && !containsOnlyEmptyChild) {
                 break;
             }
-            current = current.substring(0, lastSlash);
+            topmostEmpty = current;
+            current = parentOf(current);
+        }
+        if (topmostEmpty != null) {
+            deleteDirectory(topmostEmpty);
         }
     }
 
     @Override
     public void close() {
-        // nothing to close
+        if (directoryCopier != null) {
+            directoryCopier.close();
+        }
+    }
+
+    private PathBloomFilter buildPathFilter(long expectedPaths, double falsePositiveProbability) {
+        var filter = new PathBloomFilter(expectedPaths, falsePositiveProbability);
+        try {
+            for (Item item : itemStore.listDirectory("")) {
+                filter.add(item.getPath());
+                if (item.getType() == Item.Type.Directory) {
+                    for (Item descendant : itemStore.listRecursive(item.getPath())) {
+                        filter.add(descendant.getPath());
+                    }
+                }
+            }
+        }
+        catch (NoSuchFileException e) {
+            // Empty store, nothing to add
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+        if (filter.isSaturated()) {
+            log.warn("The layer database contains more than the expected {} paths; the negative lookup filter will be less effective", expectedPaths);
+        }
+        return filter;
+    }
+
+    /*
+     * The path is added to the filter before the item is actually written, so that there is no window in which a concurrent reader could be told that an existing item does not exist. If the
+     * write fails, the path merely becomes a false positive.
+     */
+    private void rememberPath(String path) {
+        if (pathFilter == null) {
+            return;
+        }
+        // Also the parent directories, as they may be created implicitly
+        for (String p = path; !p.isEmpty(); p = parentOf(p)) {
+            pathFilter.add(p);
+        }
+    }
+
+    private static List<String> pathsAfterMoveInto(Path source, String destination) throws IOException {
+        var paths = new ArrayList<String>();
+        try (var walk = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                if (!p.equals(source)) {
+                    paths.add(destination + "/" + source.relativize(p).toString().replace(p.getFileSystem().getSeparator(), "/"));
+                }
+            }
+        }
+        return paths;
     }
 
+    private void rememberMovedItems(String source, String destination) throws IOException {
+        if (pathFilter == null) {
+            return;
+        }
+        rememberPath(destination);
+        for (Item item : itemStore.listRecursive(source)) {
+            pathFilter.add(destination + item.getPath().substring(source.length()));
+        }
+    }
+
+    private static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash < 0 ? "" : path.substring(0, lastSlash);
+    }
+
+    /*
+     * A path with children is a directory. hasChildren uses existsPathLike, which stops at the first matching item, instead of listing the directory. The LIKE wildcards '_' and '%' are common
+     * in OCFL paths (e.g. "0=ocfl_object_1.1"), so they are escaped rather than confirmed by listing.
+     */
     private boolean directoryExists(String path) {
+        return hasChildren(path) || isChildlessDirectory(path);
+    }
+
+    /*
+     * Only called for a path without children, so listing the path itself is a lookup of the path and its type: the item store throws NoSuchFileException if the path does not exist and
+     * NotDirectoryException if it is a file.
+     */
+    private boolean isChildlessDirectory(String path) {
+        if (path.isEmpty()) {
+            return true;
+        }
+        var current = snapshot;
+        if (current != null) {
+            return current.isDirectory(path);
+        }
+        if (pathFilter != null && !pathFilter.mightContain(path)) {
+            return false;
+        }
         try {
-            listDirectory(path);
+            itemStore.listDirectory(path);
             return true;
         }
-        catch (OcflNoSuchFileException e) {
+        catch (NoSuchFileException | NotDirectoryException e) {
+            return false;
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+
+    private boolean hasChildren(String path) {
+        var current = snapshot;
+        if (current != null) {
+            return current.hasChildren(path);
+        }
+        if (pathFilter != null && !path.isEmpty() && !pathFilter.mightContain(path)) {
             return false;
         }
+        return itemStore.existsPathLike(path.isEmpty() ? "%" : Util.escapeLikeWildcards(path) + "/%");
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.exception.OcflIOException;
+import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static io.ocfl.api.OcflConstants.OBJECT_NAMASTE_PREFIX;
+
+/**
+ * Splittable enumeration of the OCFL object roots in a layered ItemStore, by walking the directory tree. Each spliterator has its own stack of directories still to visit. Splitting hands off the
+ * shallowest half of those directories, i.e. whole subtrees of the storage layout (such as the top-level directories of an n-tuple layout), so that the parts can be walked in parallel. Every
+ * item store call runs in the {@link WorkerContext}, because the parts are typically walked on threads without a database session.
+ */
+class LayeredStorageObjectRootSpliterator implements Spliterator<String> {
+    private final ItemStore itemStore;
+    private final WorkerContext workerContext;
+
+    // Candidate object roots and directories to descend into; the deepest ones are at the head
+    private final Deque<String> pending;
+
+    LayeredStorageObjectRootSpliterator(ItemStore itemStore) {
+        this(itemStore, WorkerContext.NONE);
+    }
+
+    LayeredStorageObjectRootSpliterator(ItemStore itemStore, WorkerContext workerContext) {
+        this(itemStore, workerContext, new ArrayDeque<>());
+        // The storage root itself is never an object root, so descend into it right away
+        pushChildDirectories("");
+    }
+
+    private LayeredStorageObjectRootSpliterator(ItemStore itemStore, WorkerContext workerContext, Deque<String> pending) {
+        this.itemStore = itemStore;
+        this.workerContext = workerContext;
+        this.pending = pending;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        String path;
+        while ((path = pending.pollFirst()) != null) {
+            if (isObjectRoot(path)) {
+                action.accept(path);
+                return true;
+            }
+            pushChildDirectories(path);
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+        // Descend one level if there is only one subtree left, so that there is something to split
+        while (pending.size() == 1) {
+            var path = pending.peekFirst();
+            if (isObjectRoot(path)) {
+                return null;
+            }
+            pending.pollFirst();
+            pushChildDirectories(path);
+        }
+        if (pending.size() < 2) {
+            return null;
+        }
+        var split = new ArrayDeque<String>();
+        for (int i = pending.size() / 2; i > 0; i--) {
+            split.addFirst(pending.pollLast());
+        }
+        return new LayeredStorageObjectRootSpliterator(itemStore, workerContext, split);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+
+    private boolean isObjectRoot(String path) {
+        try {
+            return workerContext.call(() -> itemStore.existsPathLike(path + "/" + OBJECT_NAMASTE_PREFIX + "%"));
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+
+    private void pushChildDirectories(String path) {
+        try {
+            var children = workerContext.call(() -> itemStore.listDirectory(path));
+            // Pushed in reverse, so that they are visited in listing order
+            for (int i = children.size() - 1; i >= 0; i--) {
+                var child = children.get(i);
+                if (child.getType() == Item.Type.Directory) {
+                    pending.addFirst(child.getPath());
+                }
+            }
+        }
+        catch (NoSuchFileException e) {
+            // Deleted while walking, or an empty storage root
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+}
@@ -19,58 +19,140 @@ import io.ocfl.api.OcflFileRetriever;
 import io.ocfl.api.exception.OcflIOException;
 import io.ocfl.api.io.FixityCheckInputStream;
 import io.ocfl.api.model.DigestAlgorithm;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import nl.knaw.dans.layerstore.ItemStore;
 import org.apache.commons.io.input.BoundedInputStream;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.UnaryOperator;
 
 /**
  * OcflFileRetriever that lazily reads files from a layered ItemStore using logical paths.
  */
-@AllArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
 public class LayeredStorageOcflFileRetriever implements OcflFileRetriever {
+    // Larger than BufferedInputStream's default of 8 KB, as content files are usually read through to the end
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
     private final ItemStore itemStore;
     private final String filePath;
     private final DigestAlgorithm digestAlgorithm;
     private final String digestValue;
+    private final ContentAddressedStore contentAddressedStore;
+    private final ContentDiskCache contentDiskCache;
+    private final ReadScheduler readScheduler;
+
+    public LayeredStorageOcflFileRetriever(ItemStore itemStore, String filePath, DigestAlgorithm digestAlgorithm, String digestValue) {
+        this(itemStore, filePath, digestAlgorithm, digestValue, null, null, null);
+    }
 
     @Override
     public FixityCheckInputStream retrieveFile() {
+        return retrieveFile(UnaryOperator.identity());
+    }
+
+    /**
+     * Like {@link #retrieveFile()}, but wraps the stream of the bytes of the file before they are buffered and checked, e.g. to count them without putting a second fixity check on top.
+     *
+     * @param wrapper wraps the stream of the bytes of the file
+     * @return the stream of the file, with its fixity checked
+     */
+    FixityCheckInputStream retrieveFile(UnaryOperator<InputStream> wrapper) {
+        if (useDiskCache()) {
+            try {
+                var is = contentDiskCache.open(digestAlgorithm, digestValue);
+                if (is == null) {
+                    is = contentDiskCache.fill(digestAlgorithm, digestValue, openFile());
+                }
+                return new FixityCheckInputStream(new BufferedInputStream(wrapper.apply(is), READ_BUFFER_SIZE), digestAlgorithm, digestValue);
+            }
+            catch (IOException e) {
+                throw OcflIOException.from(e);
+            }
+        }
         try {
-            return new FixityCheckInputStream(
-                new BufferedInputStream(itemStore.readFile(filePath)),
-                digestAlgorithm,
-                digestValue);
+            var is = openFile();
+            return new FixityCheckInputStream(new BufferedInputStream(wrapper.apply(is), READ_BUFFER_SIZE), digestAlgorithm, digestValue);
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
         }
     }
 
+    private boolean useDiskCache() {
+        return contentDiskCache != null && contentDiskCache.isCacheable(digestAlgorithm, digestValue);
+    }
+
+    private InputStream openFile() throws IOException {
+        var is = openScheduled(filePath, () -> Util.openFile(itemStore, filePath));
+        return contentAddressedStore == null ? is : contentAddressedStore.resolve(filePath, is);
+    }
+
     /**
      * Returns a range of bytes from the file. Both {@code startPosition} and {@code endPosition} are
      * inclusive byte offsets. A {@code null} startPosition is treated as 0; a {@code null} endPosition
      * reads until EOF.
+     *
+     * <p>
+     * The file is opened and the bytes before the range are skipped on the unbuffered stream. For files on the local file system skipping is a seek, and so it is for uncompressed entries in
+     * archived layers that are read through a {@link PooledZipArchiveProvider}. For deflated entries it means inflating and discarding the skipped bytes. A file that is in the disk cache is read
+     * from there; its digest was verified when it was added to the cache, and its size is checked when it is opened.
+     * </p>
      */
     @Override
     public InputStream retrieveRange(Long startPosition, Long endPosition) {
+        long start = startPosition == null ? 0L : startPosition;
+        long length = endPosition == null ? Long.MAX_VALUE : endPosition - start + 1;
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
         try {
-            var is = new BufferedInputStream(itemStore.readFile(filePath));
-            if (startPosition != null && startPosition > 0) {
-                is.skip(startPosition);
+            // A cached file is read, but not added to the cache, as that would mean reading the whole file
+            InputStream is = useDiskCache() ? contentDiskCache.open(digestAlgorithm, digestValue) : null;
+            if (is != null) {
+                is = skipTo(is, start);
             }
-            if (endPosition == null) {
+            else {
+                is = skipTo(openFile(), start);
+            }
+            is = new BufferedInputStream(is, READ_BUFFER_SIZE);
+            if (length == Long.MAX_VALUE) {
                 return is;
             }
-            long start = startPosition == null ? 0L : startPosition;
-            long length = endPosition - start + 1;
             return BoundedInputStream.builder().setInputStream(is).setMaxCount(length).get();
         }
         catch (IOException e) {
             throw OcflIOException.from(e);
         }
     }
+
+    private InputStream openScheduled(String path, ReadScheduler.Opener opener) throws IOException {
+        return readScheduler == null ? opener.open() : readScheduler.open(path, ReadScheduler.Priority.BULK, opener);
+    }
+
+    /*
+     * Skips to the start position on the unbuffered stream, so that file-backed streams can seek instead of reading. InputStream.skip may skip fewer bytes than requested, which skipNBytes takes
+     * care of.
+     */
+    private InputStream skipTo(InputStream is, long start) throws IOException {
+        if (start == 0) {
+            return is;
+        }
+        try {
+            is.skipNBytes(start);
+            return is;
+        }
+        catch (EOFException e) {
+            is.close();
+            return InputStream.nullInputStream();
+        }
+        catch (IOException | RuntimeException e) {
+            is.close();
+            throw e;
+        }
+    }
 }
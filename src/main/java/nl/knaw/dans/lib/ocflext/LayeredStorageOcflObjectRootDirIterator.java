@@ -17,41 +17,85 @@ package nl.knaw.dans.lib.ocflext;
 
 import io.ocfl.api.exception.OcflIOException;
 import io.ocfl.core.storage.common.OcflObjectRootDirIterator;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import nl.knaw.dans.layerstore.Item;
 import nl.knaw.dans.layerstore.ItemStore;
 
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NavigableSet;
 
 import static io.ocfl.api.OcflConstants.OBJECT_NAMASTE_PREFIX;
 
-@AllArgsConstructor
+/**
+ * Iterates over the OCFL object roots in a layered ItemStore. Without an index of object roots, it walks the directory tree, querying the ItemStore for the child directories of each directory and
+ * for the namaste file of each candidate object root. With an index, it simply iterates over the object roots in the index.
+ */
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
 public class LayeredStorageOcflObjectRootDirIterator extends OcflObjectRootDirIterator {
     private final ItemStore itemStore;
+    private final NavigableSet<String> objectRootIndex;
+
+    public LayeredStorageOcflObjectRootDirIterator(ItemStore itemStore) {
+        this(itemStore, null);
+    }
 
     @Override
     protected boolean isObjectRoot(String path) {
-        return itemStore.existsPathLike(path + "/" + OBJECT_NAMASTE_PREFIX + "%");
+        var event = new ObjectRootProbeEvent();
+        event.begin();
+        boolean objectRoot = objectRootIndex != null
+            ? objectRootIndex.contains(path)
+            : itemStore.existsPathLike(path + "/" + OBJECT_NAMASTE_PREFIX + "%");
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.objectRoot = objectRoot;
+            event.indexed = objectRootIndex != null;
+            event.commit();
+        }
+        return objectRoot;
     }
 
     @Override
     protected Directory createDirectory(String path) {
+        if (objectRootIndex != null) {
+            return new IndexedDirectory(path);
+        }
         return new LayeredStorageDirectory(path);
     }
 
+    /**
+     * Presents all object roots below the directory as its children, so that they are all reported without walking the intermediate directories.
+     */
+    private class IndexedDirectory implements Directory {
+        private final Iterator<String> objectRootIterator;
+
+        IndexedDirectory(String path) {
+            var prefix = path.isEmpty() ? "" : path + "/";
+            objectRootIterator = objectRootIndex.subSet(prefix, prefix + Character.MAX_VALUE).iterator();
+        }
+
+        @Override
+        public String nextChildDirectory() {
+            return objectRootIterator.hasNext() ? objectRootIterator.next() : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     private class LayeredStorageDirectory implements Directory {
         private final Iterator<String> childDirectoryIterator;
 
         LayeredStorageDirectory(String path) {
             try {
-                var items = itemStore.listDirectory(path);
-                List<String> childDirectories = items.stream()
+                // Filtered lazily, without a second list
+                childDirectoryIterator = itemStore.listDirectory(path).stream()
                     .filter(item -> item.getType() == Item.Type.Directory)
                     .map(Item::getPath)
-                    .toList();
-                childDirectoryIterator = childDirectories.iterator();
+                    .iterator();
             } catch (IOException e) {
                 throw OcflIOException.from(e);
             }
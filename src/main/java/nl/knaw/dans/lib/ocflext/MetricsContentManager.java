@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import nl.knaw.dans.layerstore.DatabaseBackedContentManager;
+
+/**
+ * Decorator for a {@link DatabaseBackedContentManager} that records Dropwizard metrics for the content stored in the database: timers {@code <prefix>.compress} and
+ * {@code <prefix>.decompress} for {@link #preStore(String, byte[])} and {@link #postRetrieve(String, byte[])}, and a histogram {@code <prefix>.compressed-percentage} of the compressed size as a
+ * percentage of the original size. Content that the delegate stores as is, i.e. returns unchanged from {@link #preStore(String, byte[])}, is not counted in the histogram.
+ */
+public class MetricsContentManager implements DatabaseBackedContentManager {
+    private final DatabaseBackedContentManager delegate;
+    private final Timer compress;
+    private final Timer decompress;
+    private final Histogram compressedPercentage;
+
+    /**
+     * @param delegate the content manager to record metrics for
+     * @param registry the registry to record the metrics in
+     * @param prefix   the prefix of the metric names, e.g. {@code "ocfl.inventory"}
+     */
+    public MetricsContentManager(DatabaseBackedContentManager delegate, MetricRegistry registry, String prefix) {
+        this.delegate = delegate;
+        this.compress = registry.timer(MetricRegistry.name(prefix, "compress"));
+        this.decompress = registry.timer(MetricRegistry.name(prefix, "decompress"));
+        this.compressedPercentage = registry.histogram(MetricRegistry.name(prefix, "compressed-percentage"));
+    }
+
+    @Override
+    public boolean test(String path) {
+        return delegate.test(path);
+    }
+
+    @Override
+    public byte[] preStore(String path, byte[] bytes) {
+        byte[] stored;
+        try (var ignored = compress.time()) {
+            stored = delegate.preStore(path, bytes);
+        }
+        // Content that is stored as is, such as sidecars, is returned unchanged and is not compressed
+        if (bytes.length > 0 && stored != bytes) {
+            compressedPercentage.update(stored.length * 100L / bytes.length);
+        }
+        return stored;
+    }
+
+    @Override
+    public byte[] postRetrieve(String path, byte[] bytes) {
+        try (var ignored = decompress.time()) {
+            return delegate.postRetrieve(path, bytes);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.ocfl.api.OcflFileRetriever;
+import io.ocfl.api.io.FixityCheckInputStream;
+import io.ocfl.api.model.DigestAlgorithm;
+import io.ocfl.core.storage.common.Listing;
+import io.ocfl.core.storage.common.OcflObjectRootDirIterator;
+import io.ocfl.core.storage.common.Storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Decorator for a {@link Storage} that records Dropwizard metrics: a timer for every method, named {@code <prefix>.<method>}, and meters for the bytes read ({@code <prefix>.bytes-read}) and
+ * written ({@code <prefix>.bytes-written}). For methods that return a stream, the timer measures opening the stream; the bytes are counted as the stream is read. Bytes read through
+ * {@link OcflFileRetriever#retrieveFile()} are counted below the fixity check if the delegate returns a {@link LayeredStorageOcflFileRetriever}, as {@link LayeredStorage} and
+ * {@link ObjectLockingStorage} do; for other retrievers they are not counted, as the fixity check stream cannot be wrapped.
+ */
+public class MetricsStorage implements Storage {
+    private final Storage delegate;
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final Meter bytesRead;
+    private final Meter bytesWritten;
+
+    /**
+     * @param delegate the storage to record metrics for
+     * @param registry the registry to record the metrics in
+     * @param prefix   the prefix of the metric names, e.g. {@code "ocfl.storage"}
+     */
+    public MetricsStorage(Storage delegate, MetricRegistry registry, String prefix) {
+        this.delegate = delegate;
+        this.registry = registry;
+        this.prefix = prefix;
+        this.bytesRead = registry.meter(MetricRegistry.name(prefix, "bytes-read"));
+        this.bytesWritten = registry.meter(MetricRegistry.name(prefix, "bytes-written"));
+    }
+
+    @Override
+    public List<Listing> listDirectory(String directoryPath) {
+        return time("listDirectory", () -> delegate.listDirectory(directoryPath));
+    }
+
+    @Override
+    public List<Listing> listRecursive(String directoryPath) {
+        return time("listRecursive", () -> delegate.listRecursive(directoryPath));
+    }
+
+    @Override
+    public boolean directoryIsEmpty(String directoryPath) {
+        return time("directoryIsEmpty", () -> delegate.directoryIsEmpty(directoryPath));
+    }
+
+    @Override
+    public OcflObjectRootDirIterator iterateObjects() {
+        return time("iterateObjects", delegate::iterateObjects);
+    }
+
+    @Override
+    public boolean fileExists(String filePath) {
+        return time("fileExists", () -> delegate.fileExists(filePath));
+    }
+
+    @Override
+    public InputStream read(String filePath) {
+        return new CountingInputStream(time("read", () -> delegate.read(filePath)));
+    }
+
+    @Override
+    public String readToString(String filePath) {
+        var content = time("readToString", () -> delegate.readToString(filePath));
+        bytesRead.mark(Util.utf8Length(content));
+        return content;
+    }
+
+    @Override
+    public OcflFileRetriever readLazy(String filePath, DigestAlgorithm algorithm, String digest) {
+        var retriever = time("readLazy", () -> delegate.readLazy(filePath, algorithm, digest));
+        return new OcflFileRetriever() {
+
+            @Override
+            public FixityCheckInputStream retrieveFile() {
+                if (retriever instanceof LayeredStorageOcflFileRetriever layeredRetriever) {
+                    return time("retrieveFile", () -> layeredRetriever.retrieveFile(CountingInputStream::new));
+                }
+                return time("retrieveFile", retriever::retrieveFile);
+            }
+
+            @Override
+            public InputStream retrieveRange(Long startPosition, Long endPosition) {
+                return new CountingInputStream(time("retrieveRange", () -> retriever.retrieveRange(startPosition, endPosition)));
+            }
+        };
+    }
+
+    @Override
+    public void write(String filePath, byte[] content, String mediaType) {
+        timeVoid("write", () -> delegate.write(filePath, content, mediaType));
+        bytesWritten.mark(content.length);
+    }
+
+    @Override
+    public void createDirectories(String path) {
+        timeVoid("createDirectories", () -> delegate.createDirectories(path));
+    }
+
+    @Override
+    public void copyDirectoryOutOf(String source, Path destination) {
+        timeVoid("copyDirectoryOutOf", () -> delegate.copyDirectoryOutOf(source, destination));
+    }
+
+    @Override
+    public void copyFileInto(Path source, String destination, String mediaType) {
+        long size = sizeOf(source);
+        timeVoid("copyFileInto", () -> delegate.copyFileInto(source, destination, mediaType));
+        bytesWritten.mark(size);
+    }
+
+    @Override
+    public void copyFileInternal(String sourceFile, String destinationFile) {
+        timeVoid("copyFileInternal", () -> delegate.copyFileInternal(sourceFile, destinationFile));
+    }
+
+    @Override
+    public void moveDirectoryInto(Path source, String destination) {
+        timeVoid("moveDirectoryInto", () -> delegate.moveDirectoryInto(source, destination));
+    }
+
+    @Override
+    public void moveDirectoryInternal(String source, String destination) {
+        timeVoid("moveDirectoryInternal", () -> delegate.moveDirectoryInternal(source, destination));
+    }
+
+    @Override
+    public void deleteDirectory(String path) {
+        timeVoid("deleteDirectory", () -> delegate.deleteDirectory(path));
+    }
+
+    @Override
+    public void deleteFile(String path) {
+        timeVoid("deleteFile", () -> delegate.deleteFile(path));
+    }
+
+    @Override
+    public void deleteFiles(Collection<String> paths) {
+        timeVoid("deleteFiles", () -> delegate.deleteFiles(paths));
+    }
+
+    @Override
+    public void deleteEmptyDirsDown(String path) {
+        timeVoid("deleteEmptyDirsDown", () -> delegate.deleteEmptyDirsDown(path));
+    }
+
+    @Override
+    public void deleteEmptyDirsUp(String path) {
+        timeVoid("deleteEmptyDirsUp", () -> delegate.deleteEmptyDirsUp(path));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private <T> T time(String method, Supplier<T> call) {
+        try (var ignored = timer(method).time()) {
+            return call.get();
+        }
+    }
+
+    private void timeVoid(String method, Runnable call) {
+        try (var ignored = timer(method).time()) {
+            call.run();
+        }
+    }
+
+    private Timer timer(String method) {
+        return registry.timer(MetricRegistry.name(prefix, method));
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        }
+        catch (IOException e) {
+            // The delegate will report the problem
+            return 0;
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                bytesRead.mark();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead.mark(n);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.OcflFileRetriever;
+import io.ocfl.api.io.FixityCheckInputStream;
+import io.ocfl.api.model.DigestAlgorithm;
+import io.ocfl.api.model.OcflVersion;
+import io.ocfl.core.storage.common.Listing;
+import io.ocfl.core.storage.common.OcflObjectRootDirIterator;
+import io.ocfl.core.storage.common.Storage;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decorator for a {@link Storage} that makes it safe for concurrent writers, by taking a read or write lock per OCFL object root (see {@link ObjectLocks}) around every call. Threads that write
+ * to different objects proceed in parallel, and readers only wait for writers of the same object. Reads that return a stream are only locked while the stream is opened, not while it is read;
+ * for {@link #readLazy(String, DigestAlgorithm, String)} that is when the returned retriever opens the file, not when the retriever is created.
+ *
+ * <p>
+ * {@link #deleteEmptyDirsUp(String)} and {@link #deleteEmptyDirsDown(String)}, which can delete directories shared by several objects, wait for all writers and block them while they run.
+ * Readers do not wait for them, as they only delete empty directories; a reader may find such a directory gone, as it would if it had come a moment later.
+ * </p>
+ *
+ * <p>
+ * {@link #iterateObjects()} is not locked, as it walks the whole storage. The object roots it returns are those present at the moment each is reached.
+ * </p>
+ */
+public class ObjectLockingStorage implements Storage {
+    private final Storage delegate;
+    private final ObjectLocks locks;
+
+    /**
+     * Creates a decorator with 1024 locks.
+     *
+     * @param delegate the storage to make safe for concurrent writers
+     */
+    public ObjectLockingStorage(Storage delegate) {
+        this(delegate, 1024);
+    }
+
+    /**
+     * @param delegate    the storage to make safe for concurrent writers
+     * @param stripeCount the number of locks; more locks means fewer unrelated objects sharing a lock
+     */
+    public ObjectLockingStorage(Storage delegate, int stripeCount) {
+        this.delegate = delegate;
+        this.locks = new ObjectLocks(stripeCount, this::isObjectRoot);
+    }
+
+    private boolean isObjectRoot(String path) {
+        return Arrays.stream(OcflVersion.values())
+            .anyMatch(version -> delegate.fileExists(path + "/0=" + version.getOcflObjectVersion()));
+    }
+
+    @Override
+    public List<Listing> listDirectory(String directoryPath) {
+        return locks.read(directoryPath, () -> delegate.listDirectory(directoryPath));
+    }
+
+    @Override
+    public List<Listing> listRecursive(String directoryPath) {
+        return locks.read(directoryPath, () -> delegate.listRecursive(directoryPath));
+    }
+
+    @Override
+    public boolean directoryIsEmpty(String directoryPath) {
+        return locks.read(directoryPath, () -> delegate.directoryIsEmpty(directoryPath));
+    }
+
+    @Override
+    public OcflObjectRootDirIterator iterateObjects() {
+        return delegate.iterateObjects();
+    }
+
+    @Override
+    public boolean fileExists(String filePath) {
+        return locks.read(filePath, () -> delegate.fileExists(filePath));
+    }
+
+    @Override
+    public InputStream read(String filePath) {
+        return locks.read(filePath, () -> delegate.read(filePath));
+    }
+
+    @Override
+    public String readToString(String filePath) {
+        return locks.read(filePath, () -> delegate.readToString(filePath));
+    }
+
+    @Override
+    public OcflFileRetriever readLazy(String filePath, DigestAlgorithm algorithm, String digest) {
+        var retriever = delegate.readLazy(filePath, algorithm, digest);
+        return new OcflFileRetriever() {
+
+            @Override
+            public FixityCheckInputStream retrieveFile() {
+                return locks.read(filePath, retriever::retrieveFile);
+            }
+
+            @Override
+            public InputStream retrieveRange(Long startPosition, Long endPosition) {
+                return locks.read(filePath, () -> retriever.retrieveRange(startPosition, endPosition));
+            }
+        };
+    }
+
+    @Override
+    public void write(String filePath, byte[] content, String mediaType) {
+        locks.write(List.of(filePath), () -> delegate.write(filePath, content, mediaType));
+    }
+
+    @Override
+    public void createDirectories(String path) {
+        locks.write(List.of(path), () -> delegate.createDirectories(path));
+    }
+
+    @Override
+    public void copyDirectoryOutOf(String source, Path destination) {
+        locks.read(source, () -> {
+            delegate.copyDirectoryOutOf(source, destination);
+            return null;
+        });
+    }
+
+    @Override
+    public void copyFileInto(Path source, String destination, String mediaType) {
+        locks.write(List.of(destination), () -> delegate.copyFileInto(source, destination, mediaType));
+    }
+
+    @Override
+    public void copyFileInternal(String sourceFile, String destinationFile) {
+        locks.write(List.of(sourceFile, destinationFile), () -> delegate.copyFileInternal(sourceFile, destinationFile));
+    }
+
+    @Override
+    public void moveDirectoryInto(Path source, String destination) {
+        locks.write(List.of(destination), () -> delegate.moveDirectoryInto(source, destination));
+    }
+
+    @Override
+    public void moveDirectoryInternal(String source, String destination) {
+        locks.write(List.of(source, destination), () -> delegate.moveDirectoryInternal(source, destination));
+    }
+
+    @Override
+    public void deleteDirectory(String path) {
+        locks.write(List.of(path), () -> delegate.deleteDirectory(path));
+    }
+
+    @Override
+    public void deleteFile(String path) {
+        locks.write(List.of(path), () -> delegate.deleteFile(path));
+    }
+
+    @Override
+    public void deleteFiles(Collection<String> paths) {
+        locks.write(paths, () -> delegate.deleteFiles(paths));
+    }
+
+    @Override
+    public void deleteEmptyDirsDown(String path) {
+        locks.writeHierarchy(() -> delegate.deleteEmptyDirsDown(path));
+    }
+
+    @Override
+    public void deleteEmptyDirsUp(String path) {
+        locks.writeHierarchy(() -> delegate.deleteEmptyDirsUp(path));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
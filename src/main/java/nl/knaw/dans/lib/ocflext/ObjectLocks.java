@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Striped read/write locks keyed by the OCFL object root of a path. Paths of the same object always map to the same lock; paths of different objects usually map to different locks.
+ *
+ * <p>
+ * The object root is derived from the path: it is the part of the path before the first segment that can only occur directly inside an object root, i.e., a version directory
+ * ({@code v1}, {@code v2}, ...), an inventory or its sidecar, the object's namaste file or its {@code extensions} directory. A path without such a segment, such as the object root itself, is
+ * its own key. As an object root may itself be named like a version directory, a segment {@code vN} only counts as a version directory if it is followed by {@code content}, or if the path up
+ * to it is an object root according to the predicate passed to the constructor.
+ * </p>
+ *
+ * <p>
+ * Besides the striped locks there is one lock for the directory hierarchy above the object roots, which is shared by all writers and taken exclusively by operations that delete directories
+ * that may be shared by several objects.
+ * </p>
+ */
+class ObjectLocks {
+    private static final Pattern VERSION_DIRECTORY = Pattern.compile("v\\d+");
+    private static final Pattern OBJECT_LEVEL_SEGMENT = Pattern.compile("inventory\\.json.*|0=ocfl_object.*|extensions");
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final ReentrantReadWriteLock hierarchyLock = new ReentrantReadWriteLock();
+    private final Predicate<String> isObjectRoot;
+
+    /**
+     * Creates locks that take every {@code vN} segment for a version directory.
+     *
+     * @param stripeCount the number of locks; rounded up to a power of two
+     */
+    ObjectLocks(int stripeCount) {
+        this(stripeCount, path -> true);
+    }
+
+    /**
+     * @param stripeCount  the number of locks; rounded up to a power of two
+     * @param isObjectRoot tells whether a path is an object root; only asked for a path followed by a {@code vN} segment that is not followed by {@code content}
+     */
+    ObjectLocks(int stripeCount, Predicate<String> isObjectRoot) {
+        this.isObjectRoot = isObjectRoot;
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    static String objectRootOf(String path, Predicate<String> isObjectRoot) {
+        var segments = path.split("/");
+        var root = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            var segment = segments[i];
+            if (OBJECT_LEVEL_SEGMENT.matcher(segment).matches()) {
+                break;
+            }
+            if (VERSION_DIRECTORY.matcher(segment).matches() && isVersionDirectory(segments, i, root.toString(), isObjectRoot)) {
+                break;
+            }
+            if (root.length() > 0) {
+                root.append('/');
+            }
+            root.append(segment);
+        }
+        return root.toString();
+    }
+
+    private static boolean isVersionDirectory(String[] segments, int index, String parent, Predicate<String> isObjectRoot) {
+        // Only a version directory has a content directory; an object root named like a version directory has not
+        if (index + 1 < segments.length && segments[index + 1].equals("content")) {
+            return true;
+        }
+        return !parent.isEmpty() && isObjectRoot.test(parent);
+    }
+
+    <T> T read(String path, Supplier<T> action) {
+        var lock = stripeOf(path).readLock();
+        lock.lock();
+        try {
+            return action.get();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void write(Collection<String> paths, Runnable action) {
+        // Locks are taken in index order, so that two writers of the same set of objects cannot deadlock
+        var indexes = new TreeSet<Integer>();
+        for (var path : paths) {
+            indexes.add(stripeIndexOf(path));
+        }
+        hierarchyLock.readLock().lock();
+        int locked = 0;
+        try {
+            for (var index : indexes) {
+                stripes[index].writeLock().lock();
+                locked++;
+            }
+            action.run();
+        }
+        finally {
+            for (var index : indexes) {
+                if (locked-- == 0) {
+                    break;
+                }
+                stripes[index].writeLock().unlock();
+            }
+            hierarchyLock.readLock().unlock();
+        }
+    }
+
+    void writeHierarchy(Runnable action) {
+        hierarchyLock.writeLock().lock();
+        try {
+            action.run();
+        }
+        finally {
+            hierarchyLock.writeLock().unlock();
+        }
+    }
+
+    private ReentrantReadWriteLock stripeOf(String path) {
+        return stripes[stripeIndexOf(path)];
+    }
+
+    private int stripeIndexOf(String path) {
+        int h = objectRootOf(path, isObjectRoot).hashCode();
+        // Spread the bits, as String.hashCode varies little in the lower bits for similar paths
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & (stripes.length - 1);
+    }
+}
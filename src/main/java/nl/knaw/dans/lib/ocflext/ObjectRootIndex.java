@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.exception.OcflIOException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Supplier;
+
+import static io.ocfl.api.OcflConstants.OBJECT_NAMASTE_PREFIX;
+
+/**
+ * In-memory index of the OCFL object roots in a {@link LayeredStorage}. It is loaded once, by walking the directory tree, and is then kept up to date by the writes, moves and deletes that go
+ * through the storage: an object root is added when its {@code 0=ocfl_object_*} namaste file is written, and removed when the namaste file or a directory containing it is deleted.
+ */
+class ObjectRootIndex {
+    private final ConcurrentSkipListSet<String> objectRoots = new ConcurrentSkipListSet<>();
+    private final Supplier<Iterator<String>> loader;
+    private volatile boolean loaded = false;
+
+    /**
+     * @param loader supplies an iterator over all object roots currently in the storage, used to load the index the first time it is needed
+     */
+    ObjectRootIndex(Supplier<Iterator<String>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @return the object roots, sorted; a live view that reflects later changes
+     */
+    NavigableSet<String> getObjectRoots() {
+        if (!loaded) {
+            load();
+        }
+        return objectRoots;
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        var iterator = loader.get();
+        try {
+            while (iterator.hasNext()) {
+                objectRoots.add(iterator.next());
+            }
+        }
+        finally {
+            if (iterator instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                }
+                catch (IOException e) {
+                    throw OcflIOException.from(e);
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    void fileWritten(String filePath) {
+        if (isNamasteFile(filePath)) {
+            objectRoots.add(parentOf(filePath));
+        }
+    }
+
+    void filesDeleted(Collection<String> filePaths) {
+        for (var filePath : filePaths) {
+            if (isNamasteFile(filePath)) {
+                objectRoots.remove(parentOf(filePath));
+            }
+        }
+    }
+
+    void directoryDeleted(String path) {
+        objectRoots.remove(path);
+        objectRoots.subSet(path + "/", path + "/" + Character.MAX_VALUE).clear();
+    }
+
+    void directoryMoved(String source, String destination) {
+        var moved = objectRoots.subSet(source + "/", source + "/" + Character.MAX_VALUE);
+        for (var objectRoot : moved.toArray(new String[0])) {
+            objectRoots.add(destination + objectRoot.substring(source.length()));
+            objectRoots.remove(objectRoot);
+        }
+        if (objectRoots.remove(source)) {
+            objectRoots.add(destination);
+        }
+    }
+
+    /**
+     * Adds the object roots in a directory on the local file system that is about to be moved into the storage.
+     *
+     * @param namasteFiles the storage paths the files in the directory are moved to
+     */
+    void filesMovedInto(Iterable<String> namasteFiles) {
+        for (var filePath : namasteFiles) {
+            fileWritten(filePath);
+        }
+    }
+
+    private static boolean isNamasteFile(String filePath) {
+        var fileName = Path.of(filePath).getFileName();
+        return fileName != null && fileName.toString().startsWith(OBJECT_NAMASTE_PREFIX);
+    }
+
+    private static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash < 0 ? "" : path.substring(0, lastSlash);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of item paths. It answers "definitely not present" or "maybe present" and never gives false negatives for paths that were added. Paths cannot be removed, so a path that is deleted
+ * keeps being reported as "maybe present". The filter is safe for concurrent use.
+ */
+class PathBloomFilter {
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashFunctions;
+    private final long expectedInsertions;
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * Creates a filter sized for the given number of paths and false positive probability. If more paths are added than expected, the filter keeps working, but the false positive probability
+     * increases.
+     *
+     * @param expectedInsertions       the number of paths the filter is expected to hold
+     * @param falsePositiveProbability the desired probability that {@link #mightContain(String)} returns {@code true} for a path that was never added
+     */
+    PathBloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions must be positive");
+        }
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("falsePositiveProbability must be between 0 and 1 (exclusive)");
+        }
+        this.expectedInsertions = expectedInsertions;
+        long optimalNumBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int numWords = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalNumBits + 63) / 64));
+        this.bits = new AtomicLongArray(numWords);
+        this.numBits = (long) numWords * 64;
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+    }
+
+    void add(String path) {
+        long hash1 = hash(path);
+        long hash2 = mix(hash1) | 1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            setBit(Math.floorMod(hash1 + i * hash2, numBits));
+        }
+        insertions.incrementAndGet();
+    }
+
+    boolean mightContain(String path) {
+        long hash1 = hash(path);
+        long hash2 = mix(hash1) | 1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (!getBit(Math.floorMod(hash1 + i * hash2, numBits))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if more paths were added than the filter was sized for
+     */
+    boolean isSaturated() {
+        return insertions.get() > expectedInsertions;
+    }
+
+    private void setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long current;
+        do {
+            current = bits.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        }
+        while (!bits.compareAndSet(word, current, current | mask));
+    }
+
+    private boolean getBit(long index) {
+        return (bits.get((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes of the path
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // Finalization step of MurmurHash3, to spread the bits
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe53e87f5L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
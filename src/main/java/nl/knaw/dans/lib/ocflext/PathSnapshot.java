@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static io.ocfl.api.OcflConstants.OBJECT_NAMASTE_PREFIX;
+
+/**
+ * Immutable in-memory index of all item paths in an item store at one point in time, used by {@link LayeredStorage} in read-only mode.
+ *
+ * <p>
+ * The paths are sorted by their UTF-8 bytes and front-coded: they are stored in blocks of {@value #BLOCK_SIZE} in one byte array, each path as the length of the prefix it shares with the
+ * previous path in its block followed by the rest of its bytes. Paths in the same directory share most of their bytes, so this takes a fraction of the memory of one {@code String} per path. An
+ * exact lookup is a binary search on the first paths of the blocks, followed by a scan of one block. The descendants of a directory are a contiguous range of the sorted paths.
+ * </p>
+ *
+ * <p>
+ * As {@code '/'} sorts directly before {@code '0'}, the descendants of directory {@code d} are exactly the paths from {@code d/} (inclusive) to {@code d0} (exclusive). Note that siblings such as
+ * {@code d.txt} sort between {@code d} and its descendants.
+ * </p>
+ */
+class PathSnapshot {
+    private static final int BLOCK_SIZE = 16;
+
+    private final byte[] data;
+    private final int[] blockOffsets;
+    private final int size;
+    private final BitSet directories;
+    private final NavigableSet<String> objectRoots;
+
+    /*
+     * Front-codes the merge of the sorted files and directories.
+     */
+    private PathSnapshot(List<byte[]> files, List<byte[]> directoryPaths) {
+        files.sort(Arrays::compareUnsigned);
+        directoryPaths.sort(Arrays::compareUnsigned);
+        size = files.size() + directoryPaths.size();
+        blockOffsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        directories = new BitSet(size);
+        var roots = new TreeSet<String>();
+        var out = new ByteArrayBuilder();
+        byte[] previous = null;
+        int f = 0;
+        int d = 0;
+        for (int i = 0; i < size; i++) {
+            boolean directory = f == files.size() || d < directoryPaths.size() && Arrays.compareUnsigned(directoryPaths.get(d), files.get(f)) < 0;
+            // Released as soon as it is encoded, so that the lists and the encoded paths are not held side by side
+            var path = directory ? directoryPaths.set(d++, null) : files.set(f++, null);
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockOffsets[i / BLOCK_SIZE] = out.size();
+            }
+            else {
+                shared = Math.max(0, Arrays.mismatch(previous, path));
+            }
+            out.writeVarInt(shared);
+            out.writeVarInt(path.length - shared);
+            out.write(path, shared, path.length - shared);
+            if (directory) {
+                directories.set(i);
+            }
+            else {
+                var pathString = new String(path, StandardCharsets.UTF_8);
+                if (fileNameOf(pathString).startsWith(OBJECT_NAMASTE_PREFIX)) {
+                    roots.add(parentOf(pathString));
+                }
+            }
+            previous = path;
+        }
+        data = out.toByteArray();
+        objectRoots = Collections.unmodifiableNavigableSet(roots);
+    }
+
+    /**
+     * Loads a snapshot of the item store, with one listing of the root directory and one recursive listing per top-level directory. Only the UTF-8 bytes of the paths are kept while loading;
+     * the items of a listing can be garbage collected as soon as the listing has been processed.
+     *
+     * @param itemStore the item store to load
+     * @return the snapshot
+     * @throws IOException if the item store could not be read
+     */
+    static PathSnapshot load(ItemStore itemStore) throws IOException {
+        var files = new ArrayList<byte[]>();
+        var directoryPaths = new ArrayList<byte[]>();
+        try {
+            for (Item item : itemStore.listDirectory("")) {
+                add(item, files, directoryPaths);
+                if (item.getType() == Item.Type.Directory) {
+                    for (Item descendant : itemStore.listRecursive(item.getPath())) {
+                        add(descendant, files, directoryPaths);
+                    }
+                }
+            }
+        }
+        catch (NoSuchFileException e) {
+            // Empty store
+        }
+        return new PathSnapshot(files, directoryPaths);
+    }
+
+    private static void add(Item item, List<byte[]> files, List<byte[]> directoryPaths) {
+        (item.getType() == Item.Type.Directory ? directoryPaths : files).add(item.getPath().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the number of paths in the snapshot
+     */
+    int size() {
+        return size;
+    }
+
+    boolean exists(String path) {
+        var key = utf8(path);
+        var cursor = ceiling(key);
+        return !cursor.atEnd() && cursor.equalTo(key);
+    }
+
+    boolean isDirectory(String path) {
+        if (path.isEmpty()) {
+            return true;
+        }
+        var key = utf8(path);
+        var cursor = ceiling(key);
+        return !cursor.atEnd() && cursor.equalTo(key) && directories.get(cursor.index);
+    }
+
+    boolean hasChildren(String directoryPath) {
+        var prefix = utf8(prefixOf(directoryPath));
+        var cursor = ceiling(prefix);
+        return !cursor.atEnd() && cursor.startsWith(prefix);
+    }
+
+    /**
+     * @param directoryPath the directory to list
+     * @return the items directly in the directory, sorted by path
+     * @throws NoSuchFileException if the directory does not exist
+     */
+    List<Item> listDirectory(String directoryPath) throws NoSuchFileException {
+        requireDirectory(directoryPath);
+        var prefix = utf8(prefixOf(directoryPath));
+        var items = new ArrayList<Item>();
+        var cursor = ceiling(prefix);
+        while (!cursor.atEnd() && cursor.startsWith(prefix)) {
+            int slash = cursor.indexOfSlash(prefix.length);
+            if (slash < 0) {
+                items.add(cursor.item());
+                cursor.next();
+            }
+            else {
+                // A descendant of a subdirectory that was already listed; skip the whole subtree
+                var subtreeEnd = Arrays.copyOf(cursor.current, slash + 1);
+                subtreeEnd[slash] = '0';
+                cursor = ceiling(subtreeEnd);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @param directoryPath the directory to list
+     * @return all items below the directory, sorted by path
+     * @throws NoSuchFileException if the directory does not exist
+     */
+    List<Item> listRecursive(String directoryPath) throws NoSuchFileException {
+        requireDirectory(directoryPath);
+        var prefix = utf8(prefixOf(directoryPath));
+        var items = new ArrayList<Item>();
+        for (var cursor = ceiling(prefix); !cursor.atEnd() && cursor.startsWith(prefix); cursor.next()) {
+            items.add(cursor.item());
+        }
+        return items;
+    }
+
+    /**
+     * @return the OCFL object roots, i.e. the parents of the {@code 0=ocfl_object_*} namaste files, sorted
+     */
+    NavigableSet<String> getObjectRoots() {
+        return objectRoots;
+    }
+
+    private void requireDirectory(String directoryPath) throws NoSuchFileException {
+        if (!isDirectory(directoryPath)) {
+            throw new NoSuchFileException(directoryPath);
+        }
+    }
+
+    /*
+     * Returns a cursor on the first path that is not less than the key, or at the end if there is none.
+     */
+    private Cursor ceiling(byte[] key) {
+        // Find the number of blocks whose first path is less than the key; the ceiling is in the last of those, or is the first path of the next block
+        int low = 0;
+        int high = blockOffsets.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareFirstOfBlock(mid, key) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        var cursor = new Cursor(low == 0 ? 0 : low - 1);
+        while (!cursor.atEnd() && Arrays.compareUnsigned(cursor.current, 0, cursor.length, key, 0, key.length) < 0) {
+            cursor.next();
+        }
+        return cursor;
+    }
+
+    private int compareFirstOfBlock(int block, byte[] key) {
+        int offset = blockOffsets[block];
+        // The shared prefix length of the first path of a block is 0 and takes one byte
+        offset++;
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+        return Arrays.compareUnsigned(data, offset, offset + length, key, 0, key.length);
+    }
+
+    private static byte[] utf8(String path) {
+        return path.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String prefixOf(String directoryPath) {
+        return directoryPath.isEmpty() ? "" : directoryPath + "/";
+    }
+
+    private static String fileNameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash < 0 ? "" : path.substring(0, lastSlash);
+    }
+
+    /*
+     * Decodes the paths in order, starting at the first path of a block.
+     */
+    private class Cursor {
+        private int index;
+        private int offset;
+        private byte[] current = new byte[64];
+        private int length;
+
+        private Cursor(int block) {
+            index = block * BLOCK_SIZE - 1;
+            offset = block < blockOffsets.length ? blockOffsets[block] : data.length;
+            next();
+        }
+
+        boolean atEnd() {
+            return index >= size;
+        }
+
+        void next() {
+            index++;
+            if (atEnd()) {
+                return;
+            }
+            int shared = readVarInt();
+            int suffixLength = readVarInt();
+            length = shared + suffixLength;
+            if (length > current.length) {
+                current = Arrays.copyOf(current, Math.max(length, current.length * 2));
+            }
+            System.arraycopy(data, offset, current, shared, suffixLength);
+            offset += suffixLength;
+        }
+
+        boolean equalTo(byte[] key) {
+            return Arrays.equals(current, 0, length, key, 0, key.length);
+        }
+
+        boolean startsWith(byte[] prefix) {
+            return length >= prefix.length && Arrays.equals(current, 0, prefix.length, prefix, 0, prefix.length);
+        }
+
+        int indexOfSlash(int from) {
+            for (int i = from; i < length; i++) {
+                if (current[i] == '/') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Item item() {
+            return Item.builder()
+                .path(new String(current, 0, length, StandardCharsets.UTF_8))
+                .type(directories.get(index) ? Item.Type.Directory : Item.Type.File)
+                .build();
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            return value;
+        }
+    }
+
+    private static class ByteArrayBuilder {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void write(byte[] source, int from, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(source, from, bytes, size, length);
+            size += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void writeByte(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+}
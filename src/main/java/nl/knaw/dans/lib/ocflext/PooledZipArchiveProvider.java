@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import nl.knaw.dans.layerstore.Archive;
+import nl.knaw.dans.layerstore.ArchiveProvider;
+import nl.knaw.dans.layerstore.ZipArchiveProvider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ArchiveProvider} for the same zip archives as {@link ZipArchiveProvider}, that reads files from archived layers through a {@link ZipFileHandlePool}. Repeated reads from the same layer
+ * then reuse the open archive and its parsed central directory, instead of opening the archive for every read. Archiving and unarchiving are left to {@link ZipArchiveProvider}.
+ *
+ * <p>
+ * {@link ZipArchiveProvider} does not expose where it puts the archive of a layer, so this provider assumes {@code <archiveRoot>/<layerId>.zip}. That assumption is checked against the
+ * delegate: on construction for an archive that is already in the archive root, and for every archive the delegate reports as archived.
+ * </p>
+ */
+public class PooledZipArchiveProvider implements ArchiveProvider {
+    private static final Pattern LAYER_ID = Pattern.compile("\\d{1,18}");
+
+    private final Path archiveRoot;
+    private final ZipArchiveProvider delegate;
+    private final ZipFileHandlePool pool;
+
+    /**
+     * @param archiveRoot the directory that contains the archives, as for {@link ZipArchiveProvider}
+     * @param pool        the pool to read the archives through; it can be shared by several providers
+     * @throws IllegalStateException if the archives of {@link ZipArchiveProvider} are not named as this provider assumes
+     */
+    public PooledZipArchiveProvider(Path archiveRoot, ZipFileHandlePool pool) {
+        this.archiveRoot = archiveRoot;
+        this.delegate = new ZipArchiveProvider(archiveRoot);
+        this.pool = pool;
+        checkArchiveNaming();
+    }
+
+    @Override
+    public Archive createArchive(long layerId) {
+        var archive = delegate.createArchive(layerId);
+        var zipFile = archivePath(layerId);
+        if (archive.isArchived() && !Files.isRegularFile(zipFile)) {
+            throw new IllegalStateException(String.format("Layer %d is archived, but not at %s", layerId, zipFile));
+        }
+        return new PooledZipArchive(archive, layerId, zipFile);
+    }
+
+    private Path archivePath(long layerId) {
+        return archiveRoot.resolve(layerId + ".zip");
+    }
+
+    /*
+     * Checks one archive that is already there: if the delegate names its archives differently, it does not recognize the layer.
+     */
+    private void checkArchiveNaming() {
+        if (!Files.isDirectory(archiveRoot)) {
+            return;
+        }
+        try (var archives = Files.newDirectoryStream(archiveRoot, "*.zip")) {
+            for (var archive : archives) {
+                var name = archive.getFileName().toString();
+                var layerId = name.substring(0, name.length() - ".zip".length());
+                if (!LAYER_ID.matcher(layerId).matches()) {
+                    continue;
+                }
+                if (!delegate.exists(Long.parseLong(layerId))) {
+                    throw new IllegalStateException(String.format("Archive %s is not recognized by %s as the archive of layer %s", archive, ZipArchiveProvider.class.getSimpleName(), layerId));
+                }
+                return;
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean exists(long layerId) {
+        return delegate.exists(layerId);
+    }
+
+    private class PooledZipArchive implements Archive {
+        private final Archive archive;
+        private final long layerId;
+        private final Path zipFile;
+
+        private PooledZipArchive(Archive archive, long layerId, Path zipFile) {
+            this.archive = archive;
+            this.layerId = layerId;
+            this.zipFile = zipFile;
+        }
+
+        @Override
+        public InputStream readFile(String filePath) throws IOException {
+            if (!archive.isArchived()) {
+                return archive.readFile(filePath);
+            }
+            return pool.readEntry(zipFile, layerId, filePath);
+        }
+
+        @Override
+        public void unarchiveTo(Path stagingDir) {
+            archive.unarchiveTo(stagingDir);
+        }
+
+        @Override
+        public void archiveFrom(Path stagingDir) {
+            // A stale handle of a previous archive with the same name must not be used
+            pool.invalidate(zipFile);
+            archive.archiveFrom(stagingDir);
+        }
+
+        @Override
+        public boolean isArchived() {
+            return archive.isArchived();
+        }
+
+        @Override
+        public boolean fileExists(String filePath) {
+            if (!archive.isArchived()) {
+                return archive.fileExists(filePath);
+            }
+            try {
+                return pool.hasEntry(zipFile, layerId, filePath);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
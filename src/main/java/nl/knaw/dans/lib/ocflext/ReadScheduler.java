@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.exception.OcflIOException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+/**
+ * Limits the number of files that are being opened at the same time. Opening a file is the step that locates its layer and, for an archived layer, opens or extracts the archive; that is
+ * where concurrent readers compete for the archive device. Opens that have to wait are queued; interactive opens (e.g. of inventories) are let through before bulk opens (content files). An
+ * open that cannot get a slot within the configured maximum wait fails.
+ *
+ * <p>
+ * Despite its name, this does not schedule the reading itself: a slot is held only while a file is opened, not while the returned stream is read, so that a slow or forgotten reader cannot keep
+ * others from opening files. Any number of opened streams may be read at the same time. The limit applies to the item store as a whole, not to a layer or an archive, as the item store does
+ * not tell which layer a file is in.
+ * </p>
+ */
+class ReadScheduler {
+    enum Priority {
+        INTERACTIVE,
+        BULK
+    }
+
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private final int maxConcurrentOpens;
+    private final long maxWaitNanos;
+    // Guarded by this
+    private int activeOpens;
+    private int waitingInteractiveOpens;
+    private int waitingBulkOpens;
+
+    ReadScheduler(int maxConcurrentOpens, Duration maxWait) {
+        if (maxConcurrentOpens <= 0) {
+            throw new IllegalArgumentException("maxConcurrentOpens must be positive");
+        }
+        this.maxConcurrentOpens = maxConcurrentOpens;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    /**
+     * Opens a file once there is room for another open.
+     *
+     * @param filePath the path of the file
+     * @param priority the priority of the open
+     * @param opener   opens the file
+     * @return the opened file
+     * @throws OcflIOException if the file could not be opened, or no slot became available within the maximum wait
+     */
+    InputStream open(String filePath, Priority priority, Opener opener) {
+        try {
+            acquire(filePath, priority);
+            try {
+                return opener.open();
+            }
+            finally {
+                release();
+            }
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+
+    synchronized ReadSchedulerStatistics getStatistics() {
+        return new ReadSchedulerStatistics(activeOpens, waitingInteractiveOpens, waitingBulkOpens);
+    }
+
+    private synchronized void acquire(String filePath, Priority priority) throws IOException {
+        var interactive = priority == Priority.INTERACTIVE;
+        if (interactive) {
+            waitingInteractiveOpens++;
+        }
+        else {
+            waitingBulkOpens++;
+        }
+        try {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (activeOpens >= maxConcurrentOpens || (!interactive && waitingInteractiveOpens > 0)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("Timed out opening " + filePath + ": all " + maxConcurrentOpens + " read slots are in use");
+                }
+                wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+            activeOpens++;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to open " + filePath);
+        }
+        finally {
+            if (interactive) {
+                waitingInteractiveOpens--;
+            }
+            else {
+                waitingBulkOpens--;
+            }
+            // A bulk open may be waiting for this interactive open to go first
+            notifyAll();
+        }
+    }
+
+    private synchronized void release() {
+        activeOpens--;
+        notifyAll();
+    }
+}
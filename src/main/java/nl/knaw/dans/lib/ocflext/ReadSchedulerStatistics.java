@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import lombok.Value;
+
+/**
+ * Snapshot of the state of the limit on concurrent opens of a {@link LayeredStorage} (see {@link LayeredStorage.Builder#maxConcurrentReads(int)}). Only opening files is counted, not reading
+ * the opened streams.
+ */
+@Value
+public class ReadSchedulerStatistics {
+    /**
+     * The number of files currently being opened.
+     */
+    int activeReads;
+
+    /**
+     * The number of interactive reads (e.g. of inventories) waiting for a slot to open their file.
+     */
+    int queuedInteractiveReads;
+
+    /**
+     * The number of bulk reads (of content files) waiting for a slot to open their file.
+     */
+    int queuedBulkReads;
+}
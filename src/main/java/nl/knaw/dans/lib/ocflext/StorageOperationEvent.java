@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a call of a {@link io.ocfl.core.storage.common.Storage} method, recorded by {@link JfrStorage}.
+ */
+@Name("nl.knaw.dans.ocflext.StorageOperation")
+@Label("Storage Operation")
+@Category({ "DANS", "OCFL Storage" })
+@Description("A call of an OCFL Storage method; for reads that return a stream, the event lasts until the stream is closed")
+class StorageOperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Path")
+    String path;
+
+    @Label("Bytes")
+    @DataAmount
+    @Description("The number of bytes read or written, or -1 if not applicable")
+    long bytes = -1;
+
+    @Label("Exception")
+    @Description("The exception that the call failed with, or null if it succeeded")
+    String exception;
+}
@@ -16,24 +16,53 @@
 package nl.knaw.dans.lib.ocflext;
 
 import nl.knaw.dans.layerstore.DatabaseBackedContentManager;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 /**
  * A {@link DatabaseBackedContentManager} that selects
  */
 public class StoreInventoryDbBackedContentManager implements DatabaseBackedContentManager {
+    // The stored bytes come from the database and are not trusted; a size hint derived from them must not allocate more than this up front
+    private static final int MAX_SIZE_HINT = 64 * 1024 * 1024;
+    // Deflate cannot compress by more than a factor of about 1032
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final BufferPool bufferPool = new BufferPool(64 * 1024, 16);
+
     // inventory.json.* is a sidecar file
     private final Pattern sidecarPattern = Pattern.compile("^inventory.json\\..+$");
 
+    private final InventoryCodecs codecs;
+
+    /**
+     * Creates a content manager that compresses with gzip.
+     */
+    public StoreInventoryDbBackedContentManager() {
+        this(InventoryCodecs.gzip());
+    }
+
+    /**
+     * Creates a content manager that compresses with the encoder of {@code codecs}. Stored content compressed with any of the codecs can be read.
+     *
+     * @param codecs the codecs to use
+     */
+    public StoreInventoryDbBackedContentManager(InventoryCodecs codecs) {
+        this.codecs = codecs;
+    }
+
     @Override
     public boolean test(String s) {
+        if (s.startsWith(ContentAddressedStore.BLOB_ROOT + "/")) {
+            // Blobs are content files, of any size
+            return false;
+        }
         var path = Path.of(s);
         return !isInsideOcflObjectVersionContentDirectory(path) && !isInMutableHead(path);
     }
@@ -68,22 +97,38 @@ public class StoreInventoryDbBackedContentManager implements DatabaseBackedConte
         return result;
     }
 
+    private OutputStream newEncodingStream(String path, OutputStream out) throws IOException {
+        if (isSidecar(Path.of(path))) {
+            return out;
+        }
+        return codecs.newEncodingStream(out);
+    }
+
+    private InputStream newDecodingStream(String path, InputStream in) throws IOException {
+        if (isSidecar(Path.of(path))) {
+            return in;
+        }
+        return codecs.newDecodingStream(in);
+    }
+
     @Override
     public byte[] preStore(String path, byte[] bytes) {
         if (isSidecar(Path.of(path))) {
             return bytes;
         }
-        else {
-            try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                GzipCompressorOutputStream gzipStream = new GzipCompressorOutputStream(byteStream)) {
-                gzipStream.write(bytes);
-                gzipStream.close();
-                return byteStream.toByteArray();
-            }
-            catch (IOException e) {
-                throw new RuntimeException("Failed to compress data", e);
-            }
+        var event = new InventoryCodingEvent();
+        event.begin();
+        // Inventories typically compress to well under a quarter of their size, whatever the codec
+        var byteStream = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (var encodingStream = newEncodingStream(path, byteStream)) {
+            encodingStream.write(bytes);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to compress data", e);
         }
+        var stored = byteStream.toByteArray();
+        commit(event, "compress", path, bytes.length, stored.length);
+        return stored;
     }
 
     @Override
@@ -91,20 +136,80 @@ public class StoreInventoryDbBackedContentManager implements DatabaseBackedConte
         if (isSidecar(Path.of(path))) {
             return bytes;
         }
-        else {
-            try (ByteArrayInputStream byteStream = new ByteArrayInputStream(bytes);
-                GzipCompressorInputStream gzipStream = new GzipCompressorInputStream(byteStream);
-                ByteArrayOutputStream outStream = new ByteArrayOutputStream()) {
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = gzipStream.read(buffer)) != -1) {
-                    outStream.write(buffer, 0, len);
-                }
-                return outStream.toByteArray();
-            }
-            catch (IOException e) {
-                throw new RuntimeException("Failed to decompress data", e);
+        var event = new InventoryCodingEvent();
+        event.begin();
+        var result = decompress(path, bytes);
+        commit(event, "decompress", path, result.length, bytes.length);
+        return result;
+    }
+
+    private byte[] decompress(String path, byte[] bytes) {
+        try (var decodingStream = newDecodingStream(path, new ByteArrayInputStream(bytes))) {
+            int sizeHint = InventoryCodecs.isGzip(bytes) ? gzipSizeHint(bytes) : saturatedSizeHint(bytes.length * 4L);
+            return readAll(decodingStream, sizeHint);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to decompress data", e);
+        }
+    }
+
+    private static void commit(InventoryCodingEvent event, String operation, String path, long originalBytes, long storedBytes) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.path = path;
+            event.originalBytes = originalBytes;
+            event.storedBytes = storedBytes;
+            event.commit();
+        }
+    }
+
+    /*
+     * Reads straight into an array of the hinted size, so that no copy is needed if the hint is exact. If the hint was too small, the array is grown as needed; if it was too large, the result is
+     * trimmed.
+     */
+    private byte[] readAll(InputStream in, int sizeHint) throws IOException {
+        var result = new byte[sizeHint];
+        int read = in.readNBytes(result, 0, sizeHint);
+        if (read < sizeHint) {
+            return Arrays.copyOf(result, read);
+        }
+        int next = in.read();
+        if (next == -1) {
+            return result;
+        }
+        var outStream = new ByteArrayOutputStream(saturatedSizeHint(sizeHint * 2L + 1));
+        outStream.write(result, 0, read);
+        outStream.write(next);
+        var buffer = bufferPool.acquire();
+        try {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                outStream.write(buffer, 0, len);
             }
         }
+        finally {
+            bufferPool.release(buffer);
+        }
+        return outStream.toByteArray();
+    }
+
+    /*
+     * The last four bytes of a gzip member are the uncompressed size modulo 2^32, in little-endian order. As they are not validated until the whole member has been read, they are only used as a
+     * hint, clamped to what the compressed length allows.
+     */
+    private static int gzipSizeHint(byte[] gzipped) {
+        int n = gzipped.length;
+        if (n < 18) {
+            return saturatedSizeHint(n * 4L);
+        }
+        long size = (gzipped[n - 4] & 0xffL)
+            | (gzipped[n - 3] & 0xffL) << 8
+            | (gzipped[n - 2] & 0xffL) << 16
+            | (gzipped[n - 1] & 0xffL) << 24;
+        return saturatedSizeHint(Math.min(size, (long) n * MAX_DEFLATE_RATIO));
+    }
+
+    private static int saturatedSizeHint(long size) {
+        return (int) Math.max(0, Math.min(size, MAX_SIZE_HINT));
     }
 }
@@ -15,9 +15,16 @@
  */
 package nl.knaw.dans.lib.ocflext;
 
+import io.ocfl.api.exception.OcflIOException;
+import io.ocfl.api.exception.OcflNoSuchFileException;
 import io.ocfl.core.storage.common.Listing;
 import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 
 public class Util {
@@ -39,4 +46,63 @@ public class Util {
             case Directory -> Listing.directory(relativePath.toString());
         };
     }
+
+    /**
+     * Open a file in the item store. The layer containing the file is resolved and the stream is opened in one call to the item store, so there is no need to check for existence first.
+     *
+     * @param itemStore the item store to read from
+     * @param filePath  the path of the file
+     * @return an input stream for the file
+     * @throws OcflNoSuchFileException if the file does not exist
+     * @throws OcflIOException         if the file could not be opened for another reason
+     */
+    public static InputStream openFile(ItemStore itemStore, String filePath) {
+        try {
+            return itemStore.readFile(filePath);
+        }
+        catch (NoSuchFileException | FileNotFoundException e) {
+            throw new OcflNoSuchFileException("File does not exist: " + filePath);
+        }
+        catch (IOException e) {
+            throw OcflIOException.from(e);
+        }
+    }
+
+    /**
+     * Escapes the wildcards of SQL LIKE in a path, so that {@link ItemStore#existsPathLike(String)} matches the path exactly. The escape character is the backslash, which is the default
+     * escape character of both H2 and PostgreSQL.
+     *
+     * @param path the path to escape
+     * @return the pattern that matches only the path itself
+     */
+    public static String escapeLikeWildcards(String path) {
+        return path.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * Computes the number of bytes of a string in UTF-8, without encoding it.
+     *
+     * @param s the string
+     * @return the length in bytes
+     */
+    public static long utf8Length(String s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
 }
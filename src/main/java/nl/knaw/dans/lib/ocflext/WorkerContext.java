@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import java.io.IOException;
+
+/**
+ * Runs the item store calls that {@link LayeredStorage} makes on threads other than the caller's, such as the worker threads of a parallel stream or of an executor. The layer database of a
+ * {@link nl.knaw.dans.layerstore.LayeredItemStore} uses the Hibernate session that is bound to the current thread, and those threads have none. An implementation typically opens a session, binds
+ * it (e.g. with Hibernate's {@code ManagedSessionContext}), runs the work in a transaction and unbinds the session again. Implementations must run the work as is if the current thread already
+ * has a session, because the calling thread can take part in the work, e.g. in a parallel stream.
+ *
+ * @see LayeredStorage.Builder#workerContext(WorkerContext)
+ */
+public interface WorkerContext {
+
+    /**
+     * Runs the work as is, for item stores that do not need a context on worker threads.
+     */
+    WorkerContext NONE = new WorkerContext() {
+
+        @Override
+        public <T> T call(Work<T> work) throws IOException {
+            return work.call();
+        }
+    };
+
+    /**
+     * Runs the work in the context that the item store needs.
+     *
+     * @param work the work to run
+     * @param <T>  the type of the result
+     * @return the result of the work
+     * @throws IOException if the work throws it
+     */
+    <T> T call(Work<T> work) throws IOException;
+
+    /**
+     * Work that accesses the item store.
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    interface Work<T> {
+        T call() throws IOException;
+    }
+}
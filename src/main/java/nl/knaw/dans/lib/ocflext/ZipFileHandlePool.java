@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.EntryStreamOffsets;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipMethod;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of open zip archives, for reading many entries from the same archives without opening the archive and parsing its central directory for every read. The pool keeps at most
+ * {@code maxOpen} archives open in total, whether in use or not. When that many are open, opening another archive closes the least recently used archive that is not in use; if all are in use, it
+ * waits for one to be released, for at most {@code maxWait}. Archives that have not been used for {@code idleTimeout} are closed. An archive that is in use, i.e., from which an entry is being
+ * read, is never closed.
+ *
+ * <p>
+ * Archives are opened outside the lock of the pool, so that opening a large archive does not hold up reads from archives that are already open. Concurrent readers of an archive that is being
+ * opened wait for that one open. Use {@link PooledZipArchiveProvider} to read the archived layers of a {@link nl.knaw.dans.layerstore.LayeredItemStore} through the pool. Archives must not be
+ * changed while the pool has them open.
+ * </p>
+ *
+ * <p>
+ * Entries that are stored uncompressed are read with positional reads on the archive, so that skipping over a part of such an entry is a seek rather than a read. This is what makes range reads
+ * (see {@link LayeredStorageOcflFileRetriever#retrieveRange(Long, Long)}) from archived layers cheap. Skipping in a deflated entry still means inflating and discarding the skipped bytes.
+ * </p>
+ */
+@Slf4j
+public class ZipFileHandlePool implements Closeable {
+    private static class Handle {
+        private final CompletableFuture<ZipFile> zipFile = new CompletableFuture<>();
+        // Set before zipFile is completed
+        private FileChannel channel;
+        private int leases;
+        private long lastUsedNanos;
+        private boolean evicted;
+    }
+
+    private final int maxOpen;
+    private final long idleTimeoutNanos;
+    private final long maxWaitNanos;
+    private final LinkedHashMap<Path, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    // Evicted, but still open because they are in use
+    private int retiredOpen;
+    private boolean closed;
+
+    /**
+     * @param maxOpen     the maximum number of archives to keep open
+     * @param idleTimeout the time after which an archive that is not in use is closed
+     * @param maxWait     the maximum time to wait for an archive to be released when {@code maxOpen} archives are in use
+     */
+    public ZipFileHandlePool(int maxOpen, Duration idleTimeout, Duration maxWait) {
+        if (maxOpen <= 0) {
+            throw new IllegalArgumentException("maxOpen must be positive");
+        }
+        this.maxOpen = maxOpen;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    /**
+     * Opens an entry of an archive. The archive stays open, at least until the returned stream is closed.
+     *
+     * @param archive   the zip file
+     * @param layerId   the id of the layer that the archive holds; recorded in the {@link ArchiveOpenEvent} if the archive has to be opened
+     * @param entryName the name of the entry
+     * @return the contents of the entry
+     * @throws NoSuchFileException if the archive or the entry does not exist
+     * @throws IOException         if the archive could not be read, or no archive was released within {@code maxWait}
+     */
+    public InputStream readEntry(Path archive, long layerId, String entryName) throws IOException {
+        var handle = acquire(archive, layerId);
+        try {
+            var zipFile = handle.zipFile.join();
+            var entry = zipFile.getEntry(entryName);
+            if (entry == null) {
+                throw new NoSuchFileException(archive + "!" + entryName);
+            }
+            return new LeasedInputStream(openEntry(zipFile, entry, handle.channel), handle);
+        }
+        catch (IOException | RuntimeException e) {
+            release(handle);
+            throw e;
+        }
+    }
+
+    private static InputStream openEntry(ZipFile zipFile, ZipArchiveEntry entry, FileChannel channel) throws IOException {
+        if (entry.getMethod() != ZipMethod.STORED.getCode() || entry.getSize() < 0) {
+            return zipFile.getInputStream(entry);
+        }
+        if (entry.getDataOffset() == EntryStreamOffsets.OFFSET_UNKNOWN) {
+            // The zip file resolves the offset of the data from the local file header when the entry is first opened
+            zipFile.getRawInputStream(entry).close();
+        }
+        return new StoredEntryInputStream(channel, entry.getDataOffset(), entry.getSize());
+    }
+
+    /**
+     * @param archive   the zip file
+     * @param layerId   the id of the layer that the archive holds; recorded in the {@link ArchiveOpenEvent} if the archive has to be opened
+     * @param entryName the name of the entry
+     * @return whether the archive contains the entry
+     * @throws IOException if the archive could not be read, or no archive was released within {@code maxWait}
+     */
+    public boolean hasEntry(Path archive, long layerId, String entryName) throws IOException {
+        var handle = acquire(archive, layerId);
+        try {
+            return handle.zipFile.join().getEntry(entryName) != null;
+        }
+        finally {
+            release(handle);
+        }
+    }
+
+    /**
+     * Closes the archive if it is open, e.g. because it is about to be replaced. Readers that are still reading from it can finish.
+     *
+     * @param archive the zip file
+     */
+    public synchronized void invalidate(Path archive) {
+        var handle = handles.remove(archive);
+        if (handle != null) {
+            evict(handle);
+        }
+    }
+
+    /**
+     * @return the number of archives that are open or being opened
+     */
+    synchronized int openCount() {
+        return handles.size() + retiredOpen;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        new ArrayList<>(handles.values()).forEach(this::evict);
+        handles.clear();
+        notifyAll();
+    }
+
+    /*
+     * Returns a leased handle whose archive has been opened successfully.
+     */
+    private Handle acquire(Path archive, long layerId) throws IOException {
+        Handle handle;
+        boolean mustOpen = false;
+        synchronized (this) {
+            var deadline = System.nanoTime() + maxWaitNanos;
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Pool is closed");
+                }
+                evictIdle();
+                handle = handles.get(archive);
+                if (handle != null) {
+                    break;
+                }
+                if (openCount() < maxOpen || evictLeastRecentlyUsedIdle()) {
+                    handle = new Handle();
+                    handles.put(archive, handle);
+                    mustOpen = true;
+                    break;
+                }
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException(String.format("Timed out opening %s: all %d archive handles are in use", archive, maxOpen));
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for an archive handle");
+                }
+            }
+            handle.leases++;
+            handle.lastUsedNanos = System.nanoTime();
+        }
+        if (mustOpen) {
+            open(archive, layerId, handle);
+        }
+        try {
+            handle.zipFile.join();
+            return handle;
+        }
+        catch (CompletionException e) {
+            release(handle);
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    private void open(Path archive, long layerId, Handle handle) {
+        try {
+            if (!archive.toFile().isFile()) {
+                throw new NoSuchFileException(archive.toString());
+            }
+            var event = new ArchiveOpenEvent();
+            event.begin();
+            var zipFile = new ZipFile(archive.toFile());
+            try {
+                handle.channel = FileChannel.open(archive, StandardOpenOption.READ);
+            }
+            catch (IOException | RuntimeException e) {
+                zipFile.close();
+                throw e;
+            }
+            if (event.shouldCommit()) {
+                event.archive = archive.toString();
+                event.layerId = layerId;
+                event.archiveSize = archive.toFile().length();
+                event.commit();
+            }
+            handle.zipFile.complete(zipFile);
+        }
+        catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                // Not cached, so that the next reader tries again
+                handles.remove(archive, handle);
+                notifyAll();
+            }
+            handle.zipFile.completeExceptionally(e);
+        }
+    }
+
+    private synchronized void release(Handle handle) {
+        handle.leases--;
+        handle.lastUsedNanos = System.nanoTime();
+        if (handle.evicted && handle.leases == 0) {
+            retiredOpen--;
+            closeQuietly(handle);
+        }
+        if (handle.leases == 0) {
+            notifyAll();
+        }
+    }
+
+    private void evictIdle() {
+        var now = System.nanoTime();
+        var toEvict = new ArrayList<Path>();
+        for (var entry : handles.entrySet()) {
+            if (entry.getValue().leases == 0 && now - entry.getValue().lastUsedNanos > idleTimeoutNanos) {
+                toEvict.add(entry.getKey());
+            }
+        }
+        for (var path : toEvict) {
+            evict(handles.remove(path));
+        }
+    }
+
+    private boolean evictLeastRecentlyUsedIdle() {
+        // Least recently used first
+        for (var entry : handles.entrySet()) {
+            if (entry.getValue().leases == 0) {
+                evict(handles.remove(entry.getKey()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evict(Handle handle) {
+        handle.evicted = true;
+        if (handle.leases == 0) {
+            closeQuietly(handle);
+        }
+        else {
+            retiredOpen++;
+        }
+    }
+
+    private static void closeQuietly(Handle handle) {
+        // A handle whose open failed has no zip file to close
+        var zipFile = handle.zipFile.getNow(null);
+        if (zipFile == null) {
+            return;
+        }
+        try (zipFile; var channel = handle.channel) {
+            // Both are closed, even if closing the zip file fails
+        }
+        catch (IOException e) {
+            log.debug("Could not close zip file", e);
+        }
+    }
+
+    /*
+     * The data of an uncompressed entry, read with positional reads, so that skipping is a seek and concurrent readers of the archive do not share a file position.
+     */
+    private static class StoredEntryInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        private StoredEntryInputStream(FileChannel channel, long dataOffset, long size) {
+            this.channel = channel;
+            this.position = dataOffset;
+            this.end = dataOffset + size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            var n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n == -1) {
+                throw new IOException("Unexpected end of archive");
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            var skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+    private class LeasedInputStream extends FilterInputStream {
+        private final Handle handle;
+        private boolean released;
+
+        private LeasedInputStream(InputStream in, Handle handle) {
+            super(in);
+            this.handle = handle;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                if (!released) {
+                    released = true;
+                    release(handle);
+                }
+            }
+        }
+    }
+}
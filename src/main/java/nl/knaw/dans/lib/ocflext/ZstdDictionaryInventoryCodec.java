@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Zstandard codec with a dictionary, typically trained on a sample of the stored inventories with {@link ZstdDictionaryTrainer}. The variant of this codec is the id of the dictionary, so every
+ * dictionary that was ever used to store content must remain available for decompression.
+ */
+public class ZstdDictionaryInventoryCodec implements InventoryCodec {
+    public static final byte CODEC_ID = 3;
+
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    private final int level;
+
+    /**
+     * @param dictionary a zstd dictionary
+     * @param level      the compression level, see the zstd documentation
+     */
+    public ZstdDictionaryInventoryCodec(byte[] dictionary, int level) {
+        this.dictionary = dictionary.clone();
+        this.dictionaryId = (int) Zstd.getDictIdFromDict(this.dictionary);
+        if (dictionaryId == 0) {
+            throw new IllegalArgumentException("Not a zstd dictionary, or dictionary without id");
+        }
+        this.level = level;
+    }
+
+    /**
+     * Loads the dictionary from a file, as written by {@link ZstdDictionaryTrainer}.
+     *
+     * @param dictionaryFile the dictionary file
+     * @param level          the compression level
+     * @return the codec
+     * @throws IOException if the file could not be read
+     */
+    public static ZstdDictionaryInventoryCodec fromFile(Path dictionaryFile, int level) throws IOException {
+        return new ZstdDictionaryInventoryCodec(Files.readAllBytes(dictionaryFile), level);
+    }
+
+    @Override
+    public byte getCodecId() {
+        return CODEC_ID;
+    }
+
+    @Override
+    public int getVariant() {
+        return dictionaryId;
+    }
+
+    @Override
+    public String getName() {
+        return "zstd-dict-" + Integer.toUnsignedString(dictionaryId) + "-" + level;
+    }
+
+    @Override
+    public OutputStream newCompressingStream(OutputStream out) throws IOException {
+        return new ZstdOutputStream(out, level).setDict(dictionary);
+    }
+
+    @Override
+    public InputStream newDecompressingStream(InputStream in) throws IOException {
+        return new ZstdInputStream(in).setDict(dictionary);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import io.ocfl.api.exception.OcflNoSuchFileException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Trains a zstd dictionary for {@link ZstdDictionaryInventoryCodec} on a sample of inventories. Samples are added until the sample budget is used up; the rest is ignored.
+ *
+ * <p>
+ * It can also be run from the command line, to train on the inventories found in a directory tree, e.g. an extracted storage root:
+ * </p>
+ * <pre>
+ * java -cp ... nl.knaw.dans.lib.ocflext.ZstdDictionaryTrainer &lt;directory&gt; &lt;dictionary-file&gt; [dictionary-size]
+ * </pre>
+ */
+@Slf4j
+public class ZstdDictionaryTrainer {
+    public static final int DEFAULT_DICTIONARY_SIZE = 112 * 1024;
+    public static final int DEFAULT_MAX_SAMPLE_BYTES = 100 * DEFAULT_DICTIONARY_SIZE;
+
+    private final ZstdDictTrainer trainer;
+    private int samples;
+
+    public ZstdDictionaryTrainer() {
+        this(DEFAULT_MAX_SAMPLE_BYTES, DEFAULT_DICTIONARY_SIZE);
+    }
+
+    /**
+     * @param maxSampleBytes the total size of the samples to train on; zstd recommends about 100 times the dictionary size
+     * @param dictionarySize the maximum size of the dictionary
+     */
+    public ZstdDictionaryTrainer(int maxSampleBytes, int dictionarySize) {
+        this.trainer = new ZstdDictTrainer(maxSampleBytes, dictionarySize);
+    }
+
+    /**
+     * @param inventory the bytes of an inventory
+     * @return {@code false} if the sample budget is used up and the sample was not added
+     */
+    public boolean addSample(byte[] inventory) {
+        boolean added = trainer.addSample(inventory);
+        if (added) {
+            samples++;
+        }
+        return added;
+    }
+
+    /**
+     * Adds the inventories of the objects in the storage as samples, until the sample budget is used up.
+     *
+     * @param storage the storage to read the inventories from
+     * @return the number of samples added
+     * @throws IOException if an inventory could not be read
+     */
+    public int addSamples(LayeredStorage storage) throws IOException {
+        int added = 0;
+        try (var objectRoots = storage.iterateObjects()) {
+            while (objectRoots.hasNext()) {
+                var inventoryPath = objectRoots.next() + "/inventory.json";
+                try (InputStream is = storage.read(inventoryPath)) {
+                    if (!addSample(is.readAllBytes())) {
+                        break;
+                    }
+                    added++;
+                }
+                catch (OcflNoSuchFileException e) {
+                    log.warn("Object root without inventory: {}", inventoryPath);
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @return the trained dictionary
+     * @throws IllegalStateException if no samples were added
+     */
+    public byte[] train() {
+        if (samples == 0) {
+            throw new IllegalStateException("No samples to train on");
+        }
+        log.info("Training zstd dictionary on {} samples", samples);
+        return trainer.trainSamples();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: ZstdDictionaryTrainer <directory> <dictionary-file> [dictionary-size]");
+        }
+        int dictionarySize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DICTIONARY_SIZE;
+        var trainer = new ZstdDictionaryTrainer(100 * dictionarySize, dictionarySize);
+        List<Path> inventories;
+        try (var paths = Files.walk(Path.of(args[0]))) {
+            inventories = paths
+                .filter(p -> p.getFileName().toString().equals("inventory.json"))
+                .collect(Collectors.toList());
+        }
+        for (var inventory : inventories) {
+            if (!trainer.addSample(Files.readAllBytes(inventory))) {
+                break;
+            }
+        }
+        Files.write(Path.of(args[1]), trainer.train());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Zstandard codec without a dictionary.
+ */
+public class ZstdInventoryCodec implements InventoryCodec {
+    public static final byte CODEC_ID = 2;
+    public static final int DEFAULT_LEVEL = 3;
+
+    private final int level;
+
+    public ZstdInventoryCodec() {
+        this(DEFAULT_LEVEL);
+    }
+
+    /**
+     * @param level the compression level, see the zstd documentation
+     */
+    public ZstdInventoryCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getCodecId() {
+        return CODEC_ID;
+    }
+
+    @Override
+    public String getName() {
+        return "zstd-" + level;
+    }
+
+    @Override
+    public OutputStream newCompressingStream(OutputStream out) throws IOException {
+        return new ZstdOutputStream(out, level);
+    }
+
+    @Override
+    public InputStream newDecompressingStream(InputStream in) throws IOException {
+        return new ZstdInputStream(in);
+    }
+}
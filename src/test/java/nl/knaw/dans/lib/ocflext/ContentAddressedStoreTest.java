@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.exception.OcflIOException;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ContentAddressedStoreTest extends AbstractTestWithTestDir {
+    private final ItemStore itemStore = mock(ItemStore.class);
+    private final ContentAddressedStore store = new ContentAddressedStore(itemStore, 1);
+
+    @Test
+    public void only_files_in_version_content_directories_are_eligible() {
+        assertThat(store.isEligible("aa/obj/v1/content/file.txt", 10)).isTrue();
+        assertThat(store.isEligible("aa/obj/v12/content/dir/v1/content/file.txt", 10)).isTrue();
+        assertThat(store.isEligible("aa/obj/extensions/0005-mutable-head/head/content/r1/file.txt", 10)).isFalse();
+        assertThat(store.isEligible("aa/obj/extensions/0005-mutable-head/head/content/r1/v1/content/file.txt", 10)).isFalse();
+        assertThat(store.isEligible("aa/obj/content/file.txt", 10)).isFalse();
+        assertThat(store.isEligible("aa/obj/v1/inventory.json", 10)).isFalse();
+        assertThat(store.isEligible("aa/obj/v1/content/file.txt", 0)).isFalse();
+    }
+
+    @Test
+    public void prepareForMoveInto_uses_manifest_digests_and_leaves_the_source_intact() throws Exception {
+        var digest = "ab".repeat(64);
+        var version = Files.createDirectories(testDir.resolve("v1/content")).getParent();
+        Files.writeString(version.resolve("content/file.txt"), "content");
+        Files.writeString(version.resolve("inventory.json"), "{\"digestAlgorithm\":\"sha512\",\"manifest\":{\"" + digest + "\":[\"v1/content/file.txt\"]}}");
+
+        var prepared = store.prepareForMoveInto(version, "aa/obj/v1");
+
+        assertThat(prepared.references()).containsExactly(Map.entry("aa/obj/v1/content/file.txt", digest));
+        verify(itemStore).writeFile(eq(ContentAddressedStore.blobPath(digest)), any());
+        assertThat(version.resolve("content/file.txt")).hasContent("content");
+        assertThat(prepared.path().resolve("content/file.txt")).hasBinaryContent(ContentAddressedStore.reference(digest));
+        assertThat(prepared.path().resolve("inventory.json")).hasSameTextualContentAs(version.resolve("inventory.json"));
+    }
+
+    @Test
+    public void resolve_does_not_look_up_markers_for_files_that_do_not_look_like_references() throws Exception {
+        var content = "ordinary content".getBytes(StandardCharsets.UTF_8);
+
+        try (var in = store.resolve("aa/obj/v1/content/file.txt", new ByteArrayInputStream(content))) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        verify(itemStore, never()).existsPathLike(any());
+    }
+
+    @Test
+    public void resolve_skips_on_the_raw_stream_after_checking_for_a_reference() throws Exception {
+        var content = "0123456789".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        try (var in = store.resolve("aa/obj/v1/content/file.txt", new ByteArrayInputStream(content))) {
+            in.skipNBytes(995);
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("56789");
+        }
+    }
+
+    @Test
+    public void failed_move_leaves_the_source_directory_untouched() throws Exception {
+        var storage = new LayeredStorage.Builder().itemStore(itemStore).contentAddressed(true).contentAddressedMinSize(1).build();
+        var version = Files.createDirectories(testDir.resolve("staged/v1/content")).getParent();
+        Files.writeString(version.resolve("content/file.txt"), "content");
+        when(itemStore.listDirectory("aa/obj/v1")).thenThrow(new NoSuchFileException("aa/obj/v1"));
+        doThrow(new IOException("disk full")).when(itemStore).moveDirectoryInto(any(Path.class), eq("aa/obj/v1"));
+
+        assertThatThrownBy(() -> storage.moveDirectoryInto(version, "aa/obj/v1")).isInstanceOf(OcflIOException.class);
+
+        assertThat(version.resolve("content/file.txt")).hasContent("content");
+        try (var siblings = Files.list(version.getParent())) {
+            assertThat(siblings).containsExactly(version);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.DigestAlgorithmRegistry;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ContentDiskCacheTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void serves_filled_file_from_disk() throws Exception {
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1000);
+        var digest = sha512("hello");
+
+        assertThat(cache.open(DigestAlgorithmRegistry.sha512, digest)).isNull();
+        try (var is = cache.fill(DigestAlgorithmRegistry.sha512, digest, stream("hello"))) {
+            assertThat(is.readAllBytes()).isEqualTo(bytes("hello"));
+        }
+        try (var is = cache.open(DigestAlgorithmRegistry.sha512, digest)) {
+            assertThat(is).isNotNull();
+            assertThat(is.readAllBytes()).isEqualTo(bytes("hello"));
+        }
+    }
+
+    @Test
+    public void fill_serves_first_bytes_before_the_whole_file_is_read() throws Exception {
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1_000_000);
+        var contents = new byte[100_000];
+        var source = new ByteArrayInputStream(contents);
+
+        try (var is = cache.fill(DigestAlgorithmRegistry.sha512, sha512(contents), source)) {
+            assertThat(is.readNBytes(10)).hasSize(10);
+            assertThat(source.available()).isGreaterThan(0);
+        }
+    }
+
+    @Test
+    public void does_not_cache_file_with_wrong_digest() throws Exception {
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1000);
+        var digest = sha512("hello");
+
+        try (var is = cache.fill(DigestAlgorithmRegistry.sha512, digest, stream("corrupt"))) {
+            // The caller's fixity check reports the mismatch
+            assertThat(is.readAllBytes()).isEqualTo(bytes("corrupt"));
+        }
+
+        assertThat(cache.open(DigestAlgorithmRegistry.sha512, digest)).isNull();
+        assertThat(cachedFiles()).isEmpty();
+    }
+
+    @Test
+    public void does_not_cache_file_that_is_not_read_to_the_end() throws Exception {
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1000);
+        var digest = sha512("hello");
+
+        try (var is = cache.fill(DigestAlgorithmRegistry.sha512, digest, stream("hello"))) {
+            assertThat(is.readNBytes(2)).isEqualTo(bytes("he"));
+        }
+
+        assertThat(cache.open(DigestAlgorithmRegistry.sha512, digest)).isNull();
+        assertThat(cachedFiles()).isEmpty();
+    }
+
+    @Test
+    public void stops_copying_file_that_exceeds_the_budget() throws Exception {
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 3);
+        var digest = sha512("hello");
+
+        try (var is = cache.fill(DigestAlgorithmRegistry.sha512, digest, stream("hello"))) {
+            assertThat(is.readNBytes(4)).isEqualTo(bytes("hell"));
+            assertThat(cachedFiles()).isEmpty();
+            assertThat(is.readAllBytes()).isEqualTo(bytes("o"));
+        }
+
+        assertThat(cache.open(DigestAlgorithmRegistry.sha512, digest)).isNull();
+    }
+
+    @Test
+    public void evicts_least_recently_used_file_when_budget_is_exceeded() throws Exception {
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 10);
+        fill(cache, "aaaa");
+        fill(cache, "bbbb");
+        cache.open(DigestAlgorithmRegistry.sha512, sha512("aaaa")).close();
+
+        fill(cache, "cccc");
+
+        assertThat(cache.open(DigestAlgorithmRegistry.sha512, sha512("bbbb"))).isNull();
+        try (var a = cache.open(DigestAlgorithmRegistry.sha512, sha512("aaaa")); var c = cache.open(DigestAlgorithmRegistry.sha512, sha512("cccc"))) {
+            assertThat(a).isNotNull();
+            assertThat(c).isNotNull();
+        }
+    }
+
+    @Test
+    public void retriever_reads_file_from_item_store_only_once() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        when(itemStore.readFile("a/file.txt")).thenReturn(stream("hello"));
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1000);
+        var retriever = new LayeredStorageOcflFileRetriever(itemStore, "a/file.txt", DigestAlgorithmRegistry.sha512, sha512("hello"), null, cache, null);
+
+        for (int i = 0; i < 2; i++) {
+            try (var is = retriever.retrieveFile()) {
+                assertThat(is.readAllBytes()).isEqualTo(bytes("hello"));
+                is.checkFixity();
+            }
+        }
+
+        verify(itemStore, times(1)).readFile("a/file.txt");
+    }
+
+    @Test
+    public void picks_up_files_from_previous_run() throws Exception {
+        var digest = sha512("hello");
+        fill(new ContentDiskCache(testDir.resolve("cache"), 1000), "hello");
+
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1000);
+
+        try (var is = cache.open(DigestAlgorithmRegistry.sha512, digest)) {
+            assertThat(is.readAllBytes()).isEqualTo(bytes("hello"));
+        }
+    }
+
+    @Test
+    public void removes_file_whose_size_has_changed_since_it_was_added() throws Exception {
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1000);
+        var digest = sha512("hello");
+        fill(cache, "hello");
+        Files.writeString(cachedFiles().get(0), "hel");
+
+        assertThat(cache.open(DigestAlgorithmRegistry.sha512, digest)).isNull();
+        assertThat(cache.contains(DigestAlgorithmRegistry.sha512, digest)).isFalse();
+        assertThat(cachedFiles()).isEmpty();
+    }
+
+    @Test
+    public void removes_file_from_previous_run_whose_digest_does_not_match() throws Exception {
+        var digest = sha512("hello");
+        fill(new ContentDiskCache(testDir.resolve("cache"), 1000), "hello");
+        Files.writeString(cachedFiles().get(0), "jello");
+
+        var cache = new ContentDiskCache(testDir.resolve("cache"), 1000);
+
+        assertThat(cache.open(DigestAlgorithmRegistry.sha512, digest)).isNull();
+        assertThat(cache.contains(DigestAlgorithmRegistry.sha512, digest)).isFalse();
+        assertThat(cachedFiles()).isEmpty();
+    }
+
+    @Test
+    public void deletes_files_from_previous_run_that_are_not_cache_files() throws Exception {
+        Files.createDirectories(testDir.resolve("cache/sha512/ab"));
+        Files.writeString(testDir.resolve("cache/sha512/ab/not-a-digest"), "x");
+        Files.writeString(testDir.resolve("cache/stray.txt"), "x");
+
+        new ContentDiskCache(testDir.resolve("cache"), 1000);
+
+        assertThat(cachedFiles()).isEmpty();
+    }
+
+    private static void fill(ContentDiskCache cache, String s) throws Exception {
+        try (var is = cache.fill(DigestAlgorithmRegistry.sha512, sha512(s), stream(s))) {
+            is.readAllBytes();
+        }
+    }
+
+    private List<Path> cachedFiles() throws Exception {
+        try (var files = Files.walk(testDir.resolve("cache"))) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(bytes(s));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sha512(String s) throws Exception {
+        return sha512(bytes(s));
+    }
+
+    private static String sha512(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-512").digest(bytes));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.DigestAlgorithmRegistry;
+import io.ocfl.api.io.FixityCheckInputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ContentPrefetcherTest extends AbstractTestWithTestDir {
+    private final ContentPrefetcher.RetrieverFactory retrieverFactory = mock(ContentPrefetcher.RetrieverFactory.class);
+
+    @Test
+    public void prefetches_head_version_of_object_whose_root_or_version_inventory_is_read() throws Exception {
+        var prefetcher = new ContentPrefetcher(new ContentDiskCache(testDir.resolve("cache"), 1000), Runnable::run, WorkerContext.NONE, retrieverFactory);
+        var files = files("x.txt", "x");
+        var inventory = inventory("v2", files);
+
+        prefetcher.inventoryRead("aa/obj/inventory.json", inventory);
+        prefetcher.inventoryRead("aa/obj/v2/inventory.json", inventory);
+
+        verify(retrieverFactory, times(2)).create("aa/obj/v2/content/x.txt", DigestAlgorithmRegistry.sha512, sha512("x"));
+    }
+
+    @Test
+    public void does_not_prefetch_for_mutable_head_inventory() throws Exception {
+        var prefetcher = new ContentPrefetcher(new ContentDiskCache(testDir.resolve("cache"), 1000), Runnable::run, WorkerContext.NONE, retrieverFactory);
+
+        prefetcher.inventoryRead("aa/obj/extensions/0005-mutable-head/head/inventory.json", inventory("v2", files("x.txt", "x")));
+
+        verify(retrieverFactory, never()).create(anyString(), any(), anyString());
+    }
+
+    @Test
+    public void treats_inventory_of_object_root_named_like_a_version_as_object_root_inventory() throws Exception {
+        var prefetcher = new ContentPrefetcher(new ContentDiskCache(testDir.resolve("cache"), 1000), Runnable::run, WorkerContext.NONE, retrieverFactory);
+
+        prefetcher.inventoryRead("aa/v1/inventory.json", inventory("v2", files("x.txt", "x")));
+
+        verify(retrieverFactory).create("aa/v1/v2/content/x.txt", DigestAlgorithmRegistry.sha512, sha512("x"));
+    }
+
+    @Test
+    public void stops_when_a_quarter_of_the_cache_budget_is_read() throws Exception {
+        // A budget of 40 bytes allows a prefetch of 10 bytes
+        var prefetcher = new ContentPrefetcher(new ContentDiskCache(testDir.resolve("cache"), 40), Runnable::run, WorkerContext.NONE, retrieverFactory);
+        var files = files("a.txt", "aaaaaaaa", "b.txt", "bbbbbbbb", "c.txt", "cccccccc");
+
+        prefetcher.inventoryRead("aa/obj/inventory.json", inventory("v1", files));
+
+        verify(retrieverFactory).create("aa/obj/v1/content/a.txt", DigestAlgorithmRegistry.sha512, sha512("aaaaaaaa"));
+        verify(retrieverFactory).create("aa/obj/v1/content/b.txt", DigestAlgorithmRegistry.sha512, sha512("bbbbbbbb"));
+        verify(retrieverFactory, never()).create("aa/obj/v1/content/c.txt", DigestAlgorithmRegistry.sha512, sha512("cccccccc"));
+    }
+
+    @Test
+    public void does_not_prefetch_object_that_is_written_before_the_prefetch_runs() throws Exception {
+        var tasks = new ArrayList<Runnable>();
+        var prefetcher = new ContentPrefetcher(new ContentDiskCache(testDir.resolve("cache"), 1000), tasks::add, WorkerContext.NONE, retrieverFactory);
+
+        prefetcher.inventoryRead("aa/obj/inventory.json", inventory("v1", files("x.txt", "x")));
+        prefetcher.cancel("aa/obj/v2");
+        tasks.forEach(Runnable::run);
+
+        verify(retrieverFactory, never()).create(anyString(), any(), anyString());
+    }
+
+    /*
+     * Makes the retriever factory serve the given files (name, content, name, content, ...) and returns them by name.
+     */
+    private Map<String, String> files(String... namesAndContents) throws Exception {
+        var files = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            var content = namesAndContents[i + 1];
+            var digest = sha512(content);
+            var retriever = mock(LayeredStorageOcflFileRetriever.class);
+            when(retriever.retrieveFile()).thenAnswer(invocation -> new FixityCheckInputStream(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), DigestAlgorithmRegistry.sha512, digest));
+            when(retrieverFactory.create(anyString(), any(), eq(digest))).thenReturn(retriever);
+            files.put(namesAndContents[i], content);
+        }
+        return files;
+    }
+
+    private static byte[] inventory(String head, Map<String, String> files) throws Exception {
+        List<String> manifest = new ArrayList<>();
+        List<String> state = new ArrayList<>();
+        for (var file : files.entrySet()) {
+            var digest = sha512(file.getValue());
+            manifest.add(String.format("\"%s\": [\"%s/content/%s\"]", digest, head, file.getKey()));
+            state.add(String.format("\"%s\": [\"%s\"]", digest, file.getKey()));
+        }
+        return String.format("{\"head\": \"%s\", \"digestAlgorithm\": \"sha512\", \"manifest\": {%s}, \"versions\": {\"%s\": {\"state\": {%s}}}}",
+            head, String.join(", ", manifest), head, String.join(", ", state)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sha512(String content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-512").digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
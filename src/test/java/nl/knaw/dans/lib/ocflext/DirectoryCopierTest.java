@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DirectoryCopierTest extends AbstractTestWithTestDir {
+    private final ItemStore itemStore = mock(ItemStore.class);
+    private final DirectoryCopier copier = new DirectoryCopier(itemStore, 4);
+
+    @AfterEach
+    public void tearDown() {
+        copier.close();
+    }
+
+    private static Item file(String path) {
+        return Item.builder().path(path).type(Item.Type.File).build();
+    }
+
+    @Test
+    public void opens_files_on_the_calling_thread() throws Exception {
+        when(itemStore.listRecursive("v1")).thenReturn(List.of(
+            Item.builder().path("v1/sub").type(Item.Type.Directory).build(),
+            file("v1/a.txt"),
+            file("v1/sub/b.txt"),
+            file("v1/sub/c.txt")));
+        Set<Thread> openingThreads = ConcurrentHashMap.newKeySet();
+        when(itemStore.readFile(anyString())).thenAnswer(invocation -> {
+            openingThreads.add(Thread.currentThread());
+            return new ByteArrayInputStream(invocation.getArgument(0, String.class).getBytes(StandardCharsets.UTF_8));
+        });
+        var outDir = testDir.resolve("out");
+
+        copier.copyDirectoryOutOf("v1", outDir);
+
+        assertThat(openingThreads).containsExactly(Thread.currentThread());
+        assertThat(outDir.resolve("a.txt")).hasContent("v1/a.txt");
+        assertThat(outDir.resolve("sub/b.txt")).hasContent("v1/sub/b.txt");
+        assertThat(outDir.resolve("sub/c.txt")).hasContent("v1/sub/c.txt");
+    }
+
+    @Test
+    public void rethrows_failure_of_a_copy() throws Exception {
+        when(itemStore.listRecursive("v1")).thenReturn(List.of(file("v1/a.txt"), file("v1/b.txt")));
+        when(itemStore.readFile("v1/a.txt")).thenReturn(new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                throw new IOException("read failed");
+            }
+        });
+        when(itemStore.readFile("v1/b.txt")).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        assertThatThrownBy(() -> copier.copyDirectoryOutOf("v1", testDir.resolve("out")))
+            .isInstanceOf(IOException.class)
+            .hasMessage("read failed");
+    }
+}
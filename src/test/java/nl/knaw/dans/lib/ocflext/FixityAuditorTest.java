@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import nl.knaw.dans.layerstore.LayeredItemStore;
+import nl.knaw.dans.layerstore.ZipArchiveProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FixityAuditorTest extends LayerDatabaseFixture {
+    private LayeredStorage storage;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        super.setUp();
+        var itemStore = new LayeredItemStore.Builder()
+            .database(db)
+            .stagingRoot(stagingDir)
+            .archiveProvider(new ZipArchiveProvider(archiveDir))
+            .build();
+        itemStore.newTopLayer();
+        // The auditor reads on worker threads, which need a session of their own
+        storage = new LayeredStorage.Builder()
+            .itemStore(itemStore)
+            .workerContext(new SessionBindingWorkerContext(daoTestExtension.getSessionFactory()))
+            .build();
+    }
+
+    @Test
+    public void reports_content_files_that_do_not_match_the_inventory() throws Exception {
+        writeObjects("aa/obj1", "intact", "intact", "bb/obj2", "original", "tampered");
+
+        var report = new FixityAuditor.Builder().storage(storage).parallelism(2).build().run();
+
+        assertThat(report.getObjectsAudited()).isEqualTo(2);
+        assertThat(report.getFilesVerified()).isEqualTo(1);
+        assertThat(report.getFailures()).extracting(FixityAuditFailure::getPath).containsExactly("bb/obj2/v1/content/file.txt");
+        assertThat(report.isClean()).isFalse();
+    }
+
+    @Test
+    public void resumes_from_checkpoint_file() throws Exception {
+        writeObjects("aa/obj1", "one", "one", "bb/obj2", "two", "two");
+        var checkpointFile = testDir.resolve("audit.checkpoint");
+        Files.writeString(checkpointFile, "aa/obj1\n");
+
+        var report = new FixityAuditor.Builder().storage(storage).checkpointFile(checkpointFile).maxBytesPerSecond(1024 * 1024).build().run();
+
+        assertThat(report.getObjectsSkipped()).isEqualTo(1);
+        assertThat(report.getObjectsAudited()).isEqualTo(1);
+        assertThat(report.isClean()).isTrue();
+        assertThat(Files.readAllLines(checkpointFile)).containsExactly("aa/obj1", "bb/obj2");
+    }
+
+    @Test
+    public void does_not_checkpoint_objects_with_failures() throws Exception {
+        writeObjects("aa/obj1", "intact", "intact", "bb/obj2", "original", "tampered");
+        var checkpointFile = testDir.resolve("audit.checkpoint");
+        var auditor = new FixityAuditor.Builder().storage(storage).parallelism(2).checkpointFile(checkpointFile).build();
+
+        auditor.run();
+        var resumed = auditor.run();
+
+        assertThat(Files.readAllLines(checkpointFile)).containsExactly("aa/obj1");
+        assertThat(resumed.getObjectsSkipped()).isEqualTo(1);
+        assertThat(resumed.getObjectsAudited()).isEqualTo(1);
+        assertThat(resumed.getFailures()).extracting(FixityAuditFailure::getPath).containsExactly("bb/obj2/v1/content/file.txt");
+    }
+
+    @Test
+    public void completes_objects_that_list_a_content_path_more_than_once() throws Exception {
+        daoTestExtension.inTransaction(() -> {
+            writeObject("aa/obj1", "twice", "twice", "\"v1/content/file.txt\",\"v1/content/file.txt\"");
+            return null;
+        });
+        var checkpointFile = testDir.resolve("audit.checkpoint");
+
+        var report = new FixityAuditor.Builder().storage(storage).checkpointFile(checkpointFile).build().run();
+
+        assertThat(report.getObjectsAudited()).isEqualTo(1);
+        assertThat(report.getFilesVerified()).isEqualTo(1);
+        assertThat(Files.readAllLines(checkpointFile)).containsExactly("aa/obj1");
+    }
+
+    /*
+     * Writes objects, each given as object root, inventoried content and stored content, and commits them, so that the sessions of the worker threads can see them.
+     */
+    private void writeObjects(String... objects) {
+        daoTestExtension.inTransaction(() -> {
+            for (int i = 0; i < objects.length; i += 3) {
+                writeObject(objects[i], objects[i + 1], objects[i + 2]);
+            }
+            return null;
+        });
+    }
+
+    private void writeObject(String objectRoot, String inventoriedContent, String storedContent) throws Exception {
+        writeObject(objectRoot, inventoriedContent, storedContent, "\"v1/content/file.txt\"");
+    }
+
+    private void writeObject(String objectRoot, String inventoriedContent, String storedContent, String manifestPaths) throws Exception {
+        var digest = sha512(inventoriedContent.getBytes(StandardCharsets.UTF_8));
+        var inventory = ("{\"id\":\"" + objectRoot + "\",\"digestAlgorithm\":\"sha512\",\"head\":\"v1\","
+            + "\"manifest\":{\"" + digest + "\":[" + manifestPaths + "]},"
+            + "\"versions\":{\"v1\":{\"state\":{\"" + digest + "\":[\"file.txt\"]}}}}").getBytes(StandardCharsets.UTF_8);
+        storage.createDirectories(objectRoot + "/v1/content");
+        storage.write(objectRoot + "/0=ocfl_object_1.1", "ocfl_object_1.1\n".getBytes(StandardCharsets.UTF_8), null);
+        storage.write(objectRoot + "/inventory.json", inventory, null);
+        storage.write(objectRoot + "/inventory.json.sha512", (sha512(inventory) + "  inventory.json\n").getBytes(StandardCharsets.UTF_8), null);
+        storage.write(objectRoot + "/v1/content/file.txt", storedContent.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static String sha512(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-512").digest(bytes));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InventoryCacheTest {
+
+    @Test
+    public void caches_only_inventories_and_sidecars() {
+        assertThat(InventoryCache.isCacheable("aa/obj1/inventory.json")).isTrue();
+        assertThat(InventoryCache.isCacheable("aa/obj1/inventory.json.sha512")).isTrue();
+        assertThat(InventoryCache.isCacheable("inventory.json")).isTrue();
+        assertThat(InventoryCache.isCacheable("aa/obj1/v1/content/inventory.jsonx")).isFalse();
+        assertThat(InventoryCache.isCacheable("aa/obj1/v1/content/file.txt")).isFalse();
+    }
+
+    @Test
+    public void counts_hits_and_misses() {
+        var cache = new InventoryCache(100);
+
+        assertThat(cache.get("a/inventory.json")).isNull();
+        cache.put("a/inventory.json", new byte[10], cache.generation());
+        assertThat(cache.get("a/inventory.json")).hasSize(10);
+
+        var statistics = cache.getStatistics();
+        assertThat(statistics.getHits()).isEqualTo(1);
+        assertThat(statistics.getMisses()).isEqualTo(1);
+        assertThat(statistics.getSizeInBytes()).isEqualTo(10);
+    }
+
+    @Test
+    public void evicts_least_recently_used_entries_by_size() {
+        var cache = new InventoryCache(100);
+        cache.put("a/inventory.json", new byte[40], cache.generation());
+        cache.put("b/inventory.json", new byte[40], cache.generation());
+        cache.get("a/inventory.json");
+
+        cache.put("c/inventory.json", new byte[40], cache.generation());
+
+        assertThat(cache.get("a/inventory.json")).isNotNull();
+        assertThat(cache.get("b/inventory.json")).isNull();
+        assertThat(cache.get("c/inventory.json")).isNotNull();
+        assertThat(cache.getStatistics().getEvictions()).isEqualTo(1);
+        assertThat(cache.getStatistics().getSizeInBytes()).isEqualTo(80);
+    }
+
+    @Test
+    public void does_not_cache_value_read_before_invalidation() {
+        var cache = new InventoryCache(100);
+        var generation = cache.generation();
+
+        cache.invalidate("a/inventory.json");
+        cache.put("a/inventory.json", new byte[10], generation);
+
+        assertThat(cache.get("a/inventory.json")).isNull();
+    }
+
+    @Test
+    public void caches_value_read_before_invalidation_of_another_object() {
+        var cache = new InventoryCache(100);
+        var generation = cache.generation();
+
+        cache.invalidate("a/inventory.json");
+        cache.invalidateDirectory("b");
+        cache.put("c/inventory.json", new byte[10], generation);
+
+        assertThat(cache.get("c/inventory.json")).isNotNull();
+    }
+
+    @Test
+    public void does_not_cache_value_read_before_invalidation_of_its_directory() {
+        var cache = new InventoryCache(100);
+        var generation = cache.generation();
+
+        cache.invalidateDirectory("aa/obj1");
+        cache.put("aa/obj1/v1/inventory.json", new byte[10], generation);
+        cache.put("aa/obj10/inventory.json", new byte[10], generation);
+
+        assertThat(cache.get("aa/obj1/v1/inventory.json")).isNull();
+        assertThat(cache.get("aa/obj10/inventory.json")).isNotNull();
+    }
+
+    @Test
+    public void invalidates_directory_and_everything_below_it() {
+        var cache = new InventoryCache(100);
+        cache.put("aa/obj1/inventory.json", new byte[10], cache.generation());
+        cache.put("aa/obj1/v1/inventory.json", new byte[10], cache.generation());
+        cache.put("aa/obj10/inventory.json", new byte[10], cache.generation());
+
+        cache.invalidateDirectory("aa/obj1");
+        cache.invalidate(List.of("aa/obj10/inventory.json"));
+
+        assertThat(cache.getStatistics().getEntryCount()).isZero();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InventoryCodecsTest {
+    private static final String INVENTORY_PATH = "ab/cd/obj1/inventory.json";
+
+    private static byte[] inventoryBytes(int objectNumber) {
+        var sb = new StringBuilder("{\"id\": \"urn:obj" + objectNumber + "\", \"type\": \"https://ocfl.io/1.1/spec/#inventory\", \"manifest\": {");
+        for (int i = 0; i < 50; i++) {
+            sb.append("\"").append(Integer.toHexString(objectNumber * 31 + i)).append("\": [\"v1/content/file").append(i).append(".txt\"],");
+        }
+        return sb.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(InventoryCodecs codecs, byte[] content) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var encoding = codecs.newEncodingStream(out)) {
+            encoding.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(InventoryCodecs codecs, byte[] stored) throws IOException {
+        try (var decoding = codecs.newDecodingStream(new ByteArrayInputStream(stored))) {
+            return decoding.readAllBytes();
+        }
+    }
+
+    private static byte[] trainDictionary() {
+        var trainer = new ZstdDictionaryTrainer(1024 * 1024, 4 * 1024);
+        for (int i = 0; i < 500; i++) {
+            trainer.addSample(inventoryBytes(i));
+        }
+        return trainer.train();
+    }
+
+    @Test
+    public void gzip_is_stored_without_header() throws Exception {
+        var stored = encode(InventoryCodecs.gzip(), inventoryBytes(1));
+
+        assertThat(InventoryCodecs.isGzip(stored)).isTrue();
+    }
+
+    @Test
+    public void content_stored_with_gzip_can_be_read_after_switching_to_zstd() throws Exception {
+        var stored = encode(InventoryCodecs.gzip(), inventoryBytes(1));
+        var zstdCodecs = new InventoryCodecs(new ZstdInventoryCodec(), List.of());
+
+        assertThat(decode(zstdCodecs, stored)).isEqualTo(inventoryBytes(1));
+        assertThat(decode(zstdCodecs, encode(zstdCodecs, inventoryBytes(2)))).isEqualTo(inventoryBytes(2));
+    }
+
+    @Test
+    public void dictionary_codec_round_trips_and_needs_its_dictionary_to_decode() throws Exception {
+        var dictionaryCodecs = new InventoryCodecs(new ZstdDictionaryInventoryCodec(trainDictionary(), 3), List.of());
+
+        var stored = encode(dictionaryCodecs, inventoryBytes(1000));
+
+        assertThat(decode(dictionaryCodecs, stored)).isEqualTo(inventoryBytes(1000));
+        assertThatThrownBy(() -> decode(InventoryCodecs.gzip(), stored))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("No codec configured");
+    }
+
+    @Test
+    public void content_manager_uses_configured_codecs() {
+        var contentManager = new StoreInventoryDbBackedContentManager(new InventoryCodecs(new ZstdInventoryCodec(), List.of()));
+
+        var stored = contentManager.preStore(INVENTORY_PATH, inventoryBytes(1));
+
+        assertThat(InventoryCodecs.isGzip(stored)).isFalse();
+        assertThat(contentManager.postRetrieve(INVENTORY_PATH, stored)).isEqualTo(inventoryBytes(1));
+    }
+
+    @Test
+    public void report_contains_an_entry_per_codec() throws Exception {
+        var samples = new ArrayList<byte[]>();
+        for (int i = 0; i < 10; i++) {
+            samples.add(inventoryBytes(i));
+        }
+
+        var entries = InventoryCodecReport.create(List.of(new GzipInventoryCodec(), new ZstdInventoryCodec()), samples);
+
+        assertThat(entries).extracting(InventoryCodecReport.Entry::getCodecName).containsExactly("gzip", "zstd-3");
+        assertThat(entries).allSatisfy(entry -> assertThat(entry.getRatio()).isGreaterThan(1.0));
+        assertThat(InventoryCodecReport.format(entries)).contains("gzip", "zstd-3");
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.exception.OcflNoSuchFileException;
+import io.ocfl.core.storage.common.Storage;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JfrStorageTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void emits_events_with_path_and_bytes() throws Exception {
+        var delegate = mock(Storage.class);
+        when(delegate.read("a/file.txt")).thenReturn(new ByteArrayInputStream(new byte[7]));
+        var storage = new JfrStorage(delegate);
+        var recordingFile = testDir.resolve("recording.jfr");
+
+        try (var recording = new Recording()) {
+            recording.enable("nl.knaw.dans.ocflext.StorageOperation").withoutThreshold();
+            recording.start();
+            try (var is = storage.read("a/file.txt")) {
+                is.readAllBytes();
+            }
+            storage.write("a/other.txt", new byte[3], null);
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        var events = RecordingFile.readAllEvents(recordingFile);
+        assertThat(events)
+            .filteredOn(e -> e.getEventType().getName().equals("nl.knaw.dans.ocflext.StorageOperation"))
+            .extracting(e -> e.getString("operation") + " " + e.getString("path") + " " + e.getLong("bytes"))
+            .containsExactly("read a/file.txt 7", "write a/other.txt 3");
+        assertThat(Files.size(recordingFile)).isPositive();
+    }
+
+    @Test
+    public void emits_event_with_exception_when_the_call_fails() throws Exception {
+        var delegate = mock(Storage.class);
+        when(delegate.readToString("a/missing.txt")).thenThrow(new OcflNoSuchFileException("File does not exist: a/missing.txt"));
+        var storage = new JfrStorage(delegate);
+        var recordingFile = testDir.resolve("recording.jfr");
+
+        try (var recording = new Recording()) {
+            recording.enable("nl.knaw.dans.ocflext.StorageOperation").withoutThreshold();
+            recording.start();
+            assertThatThrownBy(() -> storage.readToString("a/missing.txt")).isInstanceOf(OcflNoSuchFileException.class);
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        assertThat(RecordingFile.readAllEvents(recordingFile))
+            .filteredOn(e -> e.getEventType().getName().equals("nl.knaw.dans.ocflext.StorageOperation"))
+            .extracting(e -> e.getString("operation") + " " + e.getString("path") + " " + e.getString("exception"))
+            .containsExactly("readToString a/missing.txt " + OcflNoSuchFileException.class.getName() + ": File does not exist: a/missing.txt");
+    }
+}
@@ -15,15 +15,27 @@
  */
 package nl.knaw.dans.lib.ocflext;
 
+import io.ocfl.api.exception.OcflNoSuchFileException;
 import nl.knaw.dans.layerstore.Item;
 import nl.knaw.dans.layerstore.ItemStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -46,12 +58,60 @@ public class LayeredStorageContractTest {
         storage = new LayeredStorage(itemStore);
     }
 
+    // --- read ---
+
+    @Test
+    public void read_opens_file_without_separate_existence_check() throws Exception {
+        when(itemStore.readFile("a/b/file.txt")).thenReturn(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)));
+
+        try (var is = storage.read("a/b/file.txt")) {
+            assertThat(is.readAllBytes()).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        }
+
+        verify(itemStore, never()).existsPathLike(anyString());
+    }
+
+    @Test
+    public void read_maps_NoSuchFileException_to_OcflNoSuchFileException() throws Exception {
+        when(itemStore.readFile("a/b/file.txt")).thenThrow(new NoSuchFileException("a/b/file.txt"));
+
+        assertThatThrownBy(() -> storage.read("a/b/file.txt"))
+            .isInstanceOf(OcflNoSuchFileException.class);
+    }
+
+    @Test
+    public void readToString_opens_file_without_separate_existence_check() throws Exception {
+        when(itemStore.readFile("a/inventory.json")).thenReturn(new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(storage.readToString("a/inventory.json")).isEqualTo("{}");
+
+        verify(itemStore, never()).existsPathLike(anyString());
+    }
+
+    // --- copyFileInternal / copyFileInto ---
+
+    @Test
+    public void copyFileInternal_closes_source_stream() throws Exception {
+        var closed = new boolean[1];
+        when(itemStore.readFile("a/src.txt")).thenReturn(new ByteArrayInputStream("data".getBytes(StandardCharsets.UTF_8)) {
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+
+        storage.copyFileInternal("a/src.txt", "a/dst.txt");
+
+        verify(itemStore).writeFile(eq("a/dst.txt"), any());
+        assertThat(closed[0]).isTrue();
+    }
+
     // --- deleteEmptyDirsDown ---
 
     @Test
     public void deleteEmptyDirsDown_deletes_starting_path_when_it_is_empty() throws Exception {
         when(itemStore.listRecursive("a/b")).thenReturn(Collections.emptyList());
-        when(itemStore.listDirectory("a/b")).thenReturn(Collections.emptyList());
 
         storage.deleteEmptyDirsDown("a/b");
 
@@ -60,8 +120,7 @@ public class LayeredStorageContractTest {
 
     @Test
     public void deleteEmptyDirsDown_does_not_delete_starting_path_when_it_has_contents() throws Exception {
-        when(itemStore.listRecursive("a/b")).thenReturn(Collections.emptyList());
-        when(itemStore.listDirectory("a/b")).thenReturn(List.of(Item.builder().path("a/b/file.txt").type(Item.Type.File).build()));
+        when(itemStore.listRecursive("a/b")).thenReturn(List.of(Item.builder().path("a/b/file.txt").type(Item.Type.File).build()));
 
         storage.deleteEmptyDirsDown("a/b");
 
@@ -70,9 +129,9 @@ public class LayeredStorageContractTest {
 
     @Test
     public void deleteEmptyDirsDown_deletes_empty_subdirectory_but_not_non_empty_starting_path() throws Exception {
-        when(itemStore.listRecursive("a/b")).thenReturn(List.of(Item.builder().path("a/b/empty").type(Item.Type.Directory).build()));
-        when(itemStore.listDirectory("a/b/empty")).thenReturn(Collections.emptyList());
-        when(itemStore.listDirectory("a/b")).thenReturn(List.of(Item.builder().path("a/b/file.txt").type(Item.Type.File).build()));
+        when(itemStore.listRecursive("a/b")).thenReturn(List.of(
+            Item.builder().path("a/b/empty").type(Item.Type.Directory).build(),
+            Item.builder().path("a/b/file.txt").type(Item.Type.File).build()));
 
         storage.deleteEmptyDirsDown("a/b");
 
@@ -80,20 +139,35 @@ public class LayeredStorageContractTest {
         verify(itemStore, never()).deleteDirectory("a/b");
     }
 
+    @Test
+    public void deleteEmptyDirsDown_deletes_only_topmost_file_free_directory_using_a_single_listing() throws Exception {
+        when(itemStore.listRecursive("a/b")).thenReturn(List.of(
+            Item.builder().path("a/b/c").type(Item.Type.Directory).build(),
+            Item.builder().path("a/b/c/d").type(Item.Type.Directory).build(),
+            Item.builder().path("a/b/file.txt").type(Item.Type.File).build()));
+
+        storage.deleteEmptyDirsDown("a/b");
+
+        verify(itemStore).deleteDirectory("a/b/c");
+        verify(itemStore, never()).deleteDirectory("a/b/c/d");
+        verify(itemStore, never()).deleteDirectory("a/b");
+        verify(itemStore, never()).listDirectory(anyString());
+    }
+
     // --- deleteEmptyDirsUp ---
 
     @Test
-    public void deleteEmptyDirsUp_deletes_starting_path_and_walks_up_to_first_non_empty_ancestor() throws Exception {
-        // a/b/c is empty; a/b becomes empty after c is deleted; a becomes empty after b is deleted
+    public void deleteEmptyDirsUp_deletes_topmost_empty_ancestor_in_one_call() throws Exception {
+        // a/b/c is empty; a/b only contains a/b/c; a only contains a/b
         when(itemStore.listDirectory("a/b/c")).thenReturn(Collections.emptyList());
-        when(itemStore.listDirectory("a/b")).thenReturn(Collections.emptyList());
-        when(itemStore.listDirectory("a")).thenReturn(Collections.emptyList());
+        when(itemStore.listDirectory("a/b")).thenReturn(List.of(Item.builder().path("a/b/c").type(Item.Type.Directory).build()));
+        when(itemStore.listDirectory("a")).thenReturn(List.of(Item.builder().path("a/b").type(Item.Type.Directory).build()));
 
         storage.deleteEmptyDirsUp("a/b/c");
 
-        verify(itemStore).deleteDirectory("a/b/c");
-        verify(itemStore).deleteDirectory("a/b");
         verify(itemStore).deleteDirectory("a");
+        verify(itemStore, never()).deleteDirectory("a/b/c");
+        verify(itemStore, never()).deleteDirectory("a/b");
     }
 
     @Test
@@ -116,4 +190,125 @@ public class LayeredStorageContractTest {
 
         verify(itemStore, never()).deleteDirectory("a/b");
     }
+
+    // --- directoryIsEmpty ---
+
+    @Test
+    public void directoryIsEmpty_probes_for_children_without_listing() throws Exception {
+        when(itemStore.existsPathLike("a/b/%")).thenReturn(true);
+
+        assertThat(storage.directoryIsEmpty("a/b")).isFalse();
+
+        verify(itemStore, never()).listDirectory(anyString());
+    }
+
+    @Test
+    public void directoryIsEmpty_lists_childless_path_itself_instead_of_its_parent() throws Exception {
+        when(itemStore.listDirectory("a/b")).thenReturn(Collections.emptyList());
+
+        assertThat(storage.directoryIsEmpty("a/b")).isTrue();
+
+        verify(itemStore).existsPathLike("a/b/%");
+        verify(itemStore, never()).existsPathLike("a/b");
+        verify(itemStore, never()).listDirectory("a");
+    }
+
+    @Test
+    public void directoryIsEmpty_throws_OcflNoSuchFileException_when_path_is_a_file() throws Exception {
+        when(itemStore.listDirectory("a/b")).thenThrow(new NotDirectoryException("a/b"));
+
+        assertThatThrownBy(() -> storage.directoryIsEmpty("a/b"))
+            .isInstanceOf(OcflNoSuchFileException.class);
+    }
+
+    @Test
+    public void directoryIsEmpty_throws_OcflNoSuchFileException_when_directory_does_not_exist() throws Exception {
+        when(itemStore.listDirectory("a/b")).thenThrow(new NoSuchFileException("a/b"));
+
+        assertThatThrownBy(() -> storage.directoryIsEmpty("a/b"))
+            .isInstanceOf(OcflNoSuchFileException.class);
+    }
+
+    @Test
+    public void directoryIsEmpty_escapes_like_wildcards_instead_of_listing() throws Exception {
+        when(itemStore.existsPathLike("a\\_b/%")).thenReturn(true);
+
+        assertThat(storage.directoryIsEmpty("a_b")).isFalse();
+
+        verify(itemStore, never()).existsPathLike("a_b/%");
+        verify(itemStore, never()).listDirectory(anyString());
+    }
+
+    // --- negative lookup filter ---
+
+    @Test
+    public void fileExists_does_not_query_store_for_unknown_path_when_filter_enabled() throws Exception {
+        when(itemStore.listDirectory("")).thenReturn(List.of(Item.builder().path("a").type(Item.Type.Directory).build()));
+        when(itemStore.listRecursive("a")).thenReturn(List.of(Item.builder().path("a/file.txt").type(Item.Type.File).build()));
+        var filteredStorage = new LayeredStorage.Builder().itemStore(itemStore).negativeLookupFilter(true).build();
+
+        assertThat(filteredStorage.fileExists("a/other.txt")).isFalse();
+
+        verify(itemStore, never()).existsPathLike(anyString());
+    }
+
+    @Test
+    public void fileExists_queries_store_for_known_path_when_filter_enabled() throws Exception {
+        when(itemStore.listDirectory("")).thenReturn(List.of(Item.builder().path("a").type(Item.Type.Directory).build()));
+        when(itemStore.listRecursive("a")).thenReturn(List.of(Item.builder().path("a/file.txt").type(Item.Type.File).build()));
+        when(itemStore.existsPathLike("a/file.txt")).thenReturn(true);
+        var filteredStorage = new LayeredStorage.Builder().itemStore(itemStore).negativeLookupFilter(true).build();
+
+        assertThat(filteredStorage.fileExists("a/file.txt")).isTrue();
+
+        verify(itemStore).existsPathLike("a/file.txt");
+    }
+
+    @Test
+    public void fileExists_queries_store_for_path_written_after_startup_when_filter_enabled() throws Exception {
+        var filteredStorage = new LayeredStorage.Builder().itemStore(itemStore).negativeLookupFilter(true).build();
+        when(itemStore.existsPathLike("a/b/new.txt")).thenReturn(true);
+
+        // The existence check in write is answered by the filter
+        filteredStorage.write("a/b/new.txt", new byte[0], null);
+
+        assertThat(filteredStorage.fileExists("a/b/new.txt")).isTrue();
+        verify(itemStore).existsPathLike("a/b/new.txt");
+    }
+
+    // --- object root index ---
+
+    @Test
+    public void iterateObjects_uses_object_root_index_when_enabled() throws Exception {
+        var indexedStorage = new LayeredStorage.Builder().itemStore(itemStore).objectRootIndex(true).build();
+        indexedStorage.write("aa/obj1/0=ocfl_object_1.1", new byte[0], null);
+        indexedStorage.write("bb/obj2/0=ocfl_object_1.1", new byte[0], null);
+        indexedStorage.deleteDirectory("bb/obj2");
+
+        var objectRoots = new ArrayList<String>();
+        try (var iterator = indexedStorage.iterateObjects()) {
+            iterator.forEachRemaining(objectRoots::add);
+        }
+
+        assertThat(objectRoots).containsExactly("aa/obj1");
+        verify(itemStore, never()).existsPathLike(endsWith("%"));
+    }
+
+    // --- inventory cache ---
+
+    @Test
+    public void readToString_serves_inventory_from_cache_until_it_is_replaced() throws Exception {
+        var cachingStorage = new LayeredStorage.Builder().itemStore(itemStore).inventoryCache(true).build();
+        when(itemStore.readFile("aa/obj1/inventory.json"))
+            .thenReturn(new ByteArrayInputStream("v1".getBytes(StandardCharsets.UTF_8)))
+            .thenReturn(new ByteArrayInputStream("v2".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(cachingStorage.readToString("aa/obj1/inventory.json")).isEqualTo("v1");
+        assertThat(cachingStorage.readToString("aa/obj1/inventory.json")).isEqualTo("v1");
+        cachingStorage.copyFileInternal("aa/obj1/v2/inventory.json", "aa/obj1/inventory.json");
+        assertThat(cachingStorage.readToString("aa/obj1/inventory.json")).isEqualTo("v2");
+
+        assertThat(cachingStorage.getInventoryCacheStatistics().getHits()).isEqualTo(1);
+        assertThat(cachingStorage.getInventoryCacheStatistics().getMisses()).isEqualTo(2);
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LayeredStorageObjectRootSpliteratorTest {
+    private ItemStore itemStore;
+
+    private static Item dir(String path) {
+        return Item.builder().path(path).type(Item.Type.Directory).build();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Two-level layout with object roots aa/o1, aa/o2, bb/o3 and cc/dd/o4
+        itemStore = mock(ItemStore.class);
+        when(itemStore.listDirectory("")).thenReturn(List.of(dir("aa"), dir("bb"), dir("cc"), Item.builder().path("0=ocfl_1.1").type(Item.Type.File).build()));
+        when(itemStore.listDirectory("aa")).thenReturn(List.of(dir("aa/o1"), dir("aa/o2")));
+        when(itemStore.listDirectory("bb")).thenReturn(List.of(dir("bb/o3")));
+        when(itemStore.listDirectory("cc")).thenReturn(List.of(dir("cc/dd")));
+        when(itemStore.listDirectory("cc/dd")).thenReturn(List.of(dir("cc/dd/o4")));
+        for (var objectRoot : List.of("aa/o1", "aa/o2", "bb/o3", "cc/dd/o4")) {
+            when(itemStore.existsPathLike(objectRoot + "/0=ocfl_object%")).thenReturn(true);
+        }
+    }
+
+    @Test
+    public void visits_all_object_roots_sequentially() {
+        var objectRoots = new ArrayList<String>();
+
+        new LayeredStorageObjectRootSpliterator(itemStore).forEachRemaining(objectRoots::add);
+
+        assertThat(objectRoots).containsExactly("aa/o1", "aa/o2", "bb/o3", "cc/dd/o4");
+    }
+
+    @Test
+    public void split_parts_together_visit_all_object_roots_once() {
+        var spliterator = new LayeredStorageObjectRootSpliterator(itemStore);
+
+        var split = spliterator.trySplit();
+
+        assertThat(split).isNotNull();
+        var objectRoots = new ArrayList<String>();
+        spliterator.forEachRemaining(objectRoots::add);
+        split.forEachRemaining(objectRoots::add);
+        assertThat(objectRoots).containsExactlyInAnyOrder("aa/o1", "aa/o2", "bb/o3", "cc/dd/o4");
+    }
+
+    @Test
+    public void parallel_stream_visits_all_object_roots() {
+        var storage = new LayeredStorage(itemStore);
+
+        var objectRoots = storage.streamObjectRoots(true).collect(Collectors.toList());
+
+        assertThat(objectRoots).containsExactlyInAnyOrder("aa/o1", "aa/o2", "bb/o3", "cc/dd/o4");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.DigestAlgorithmRegistry;
+import io.ocfl.api.exception.OcflNoSuchFileException;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LayeredStorageOcflFileRetrieverTest {
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * A stream that skips at most one byte per call to skip, as InputStream.skip is allowed to do.
+     */
+    private static class ReluctantSkipInputStream extends FilterInputStream {
+        ReluctantSkipInputStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return super.skip(Math.min(n, 1));
+        }
+    }
+
+    @Test
+    public void retrieveRange_returns_inclusive_range_even_if_stream_skips_short() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        when(itemStore.readFile("a/file.txt")).thenReturn(new ReluctantSkipInputStream(CONTENT));
+        var retriever = new LayeredStorageOcflFileRetriever(itemStore, "a/file.txt", DigestAlgorithmRegistry.sha512, "unused");
+
+        try (var is = retriever.retrieveRange(3L, 5L)) {
+            assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("345");
+        }
+    }
+
+    @Test
+    public void retrieveRange_reads_until_end_of_file_if_endPosition_is_null() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        when(itemStore.readFile("a/file.txt")).thenReturn(new ByteArrayInputStream(CONTENT));
+        var retriever = new LayeredStorageOcflFileRetriever(itemStore, "a/file.txt", DigestAlgorithmRegistry.sha512, "unused");
+
+        try (var is = retriever.retrieveRange(7L, null)) {
+            assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("789");
+        }
+    }
+
+    @Test
+    public void retrieveRange_returns_empty_stream_if_startPosition_is_beyond_end_of_file() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        when(itemStore.readFile("a/file.txt")).thenReturn(new ByteArrayInputStream(CONTENT));
+        var retriever = new LayeredStorageOcflFileRetriever(itemStore, "a/file.txt", DigestAlgorithmRegistry.sha512, "unused");
+
+        try (var is = retriever.retrieveRange(20L, 30L)) {
+            assertThat(is.readAllBytes()).isEmpty();
+        }
+    }
+
+    @Test
+    public void retrieveFile_throws_OcflNoSuchFileException_when_file_does_not_exist() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        when(itemStore.readFile("a/file.txt")).thenThrow(new NoSuchFileException("a/file.txt"));
+        var retriever = new LayeredStorageOcflFileRetriever(itemStore, "a/file.txt", DigestAlgorithmRegistry.sha512, "unused");
+
+        assertThatThrownBy(retriever::retrieveFile)
+            .isInstanceOf(OcflNoSuchFileException.class);
+    }
+}
@@ -25,8 +25,10 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -34,11 +36,12 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 public class LayeredStorageTest extends LayerDatabaseFixture {
 
     private LayeredStorage storage;
+    private LayeredItemStore itemStore;
 
     @BeforeEach
     public void setUp() throws Exception {
         super.setUp();
-        var itemStore = new LayeredItemStore.Builder()
+        itemStore = new LayeredItemStore.Builder()
             .database(db)
             .stagingRoot(stagingDir)
             .archiveProvider(new ZipArchiveProvider(archiveDir))
@@ -101,6 +104,53 @@ public class LayeredStorageTest extends LayerDatabaseFixture {
         }
     }
 
+    // --- streamObjectRoots ---
+
+    @Test
+    public void streamObjectRoots_queries_the_layer_database_on_worker_threads_through_the_worker_context() throws Exception {
+        var parallelStorage = new LayeredStorage.Builder()
+            .itemStore(itemStore)
+            .workerContext(new SessionBindingWorkerContext(daoTestExtension.getSessionFactory()))
+            .build();
+        var expectedObjectRoots = List.of("aa/o1", "aa/o2", "bb/o3", "cc/dd/o4");
+        // Committed, so that the sessions of the worker threads can see the items
+        daoTestExtension.inTransaction(() -> {
+            for (var objectRoot : expectedObjectRoots) {
+                parallelStorage.createDirectories(objectRoot);
+                parallelStorage.write(objectRoot + "/0=ocfl_object_1.1", "ocfl_object_1.1\n".getBytes(StandardCharsets.UTF_8), null);
+            }
+        });
+        var pool = new ForkJoinPool(4);
+        try {
+            var objectRoots = pool.submit(() -> parallelStorage.streamObjectRoots(true).toList()).get();
+
+            assertThat(objectRoots).containsExactlyInAnyOrderElementsOf(expectedObjectRoots);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // --- directoryIsEmpty ---
+
+    @Test
+    public void directoryIsEmpty_does_not_treat_like_wildcards_in_path_as_wildcards() throws Exception {
+        storage.createDirectories("a/b_c");
+        storage.write("a/bxc/file.txt", "x".getBytes(StandardCharsets.UTF_8), null);
+
+        assertThat(storage.directoryIsEmpty("a/b_c")).isTrue();
+        assertThatThrownBy(() -> storage.directoryIsEmpty("a/bx_"))
+            .isInstanceOf(OcflNoSuchFileException.class);
+    }
+
+    @Test
+    public void directoryIsEmpty_throws_OcflNoSuchFileException_when_path_is_a_file() throws Exception {
+        storage.write("a/b/file.txt", "x".getBytes(StandardCharsets.UTF_8), null);
+
+        assertThatThrownBy(() -> storage.directoryIsEmpty("a/b/file.txt"))
+            .isInstanceOf(OcflNoSuchFileException.class);
+    }
+
     // --- moveDirectoryInto ---
 
     @Test
@@ -159,6 +209,198 @@ public class LayeredStorageTest extends LayerDatabaseFixture {
         assertThat(storage.fileExists("a/b/file.txt")).isTrue();
     }
 
+    // --- content-addressed storage ---
+
+    @Test
+    public void copyFileInto_stores_identical_content_once_when_content_addressed() throws Exception {
+        var casStorage = new LayeredStorage.Builder().itemStore(itemStore).contentAddressed(true).contentAddressedMinSize(1).build();
+        var source = Files.writeString(testDir.resolve("source.txt"), "same content");
+        casStorage.createDirectories("a/v1/content");
+        casStorage.createDirectories("a/v2/content");
+
+        casStorage.copyFileInto(source, "a/v1/content/file.txt", null);
+        casStorage.copyFileInto(source, "a/v2/content/copy.txt", null);
+
+        assertThat(casStorage.readToString("a/v1/content/file.txt")).isEqualTo("same content");
+        assertThat(casStorage.readToString("a/v2/content/copy.txt")).isEqualTo("same content");
+        var blobPath = ContentAddressedStore.blobPath(computeSha512("same content"));
+        assertThat(storage.fileExists(blobPath)).isTrue();
+        // The content files themselves are references
+        try (var raw = itemStore.readFile("a/v2/content/copy.txt")) {
+            assertThat(new String(raw.readAllBytes(), StandardCharsets.UTF_8)).startsWith("DANS-OCFL-CONTENT-REFERENCE/1");
+        }
+    }
+
+    @Test
+    public void references_are_resolved_by_readLazy_and_copyDirectoryOutOf() throws Exception {
+        var casStorage = new LayeredStorage.Builder().itemStore(itemStore).contentAddressed(true).contentAddressedMinSize(1).build();
+        var externalDir = Files.createDirectories(testDir.resolve("external/content"));
+        Files.writeString(externalDir.resolve("x.txt"), "lazy content");
+        casStorage.createDirectories("a/obj");
+
+        casStorage.moveDirectoryInto(externalDir.getParent(), "a/obj/v1");
+
+        try (var stream = casStorage.readLazy("a/obj/v1/content/x.txt", DigestAlgorithmRegistry.sha512, computeSha512("lazy content")).retrieveFile()) {
+            assertThat(stream.readAllBytes()).isEqualTo("lazy content".getBytes(StandardCharsets.UTF_8));
+        }
+        try (var range = casStorage.readLazy("a/obj/v1/content/x.txt", DigestAlgorithmRegistry.sha512, "unused").retrieveRange(5L, 11L)) {
+            assertThat(new String(range.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("content");
+        }
+        var outDir = testDir.resolve("out");
+        casStorage.copyDirectoryOutOf("a/obj/v1", outDir);
+        assertThat(Files.readString(outDir.resolve("content/x.txt"))).isEqualTo("lazy content");
+    }
+
+    @Test
+    public void blobs_are_stored_in_the_staging_layer_and_not_in_the_database() throws Exception {
+        var dbBackedStore = new LayeredItemStore.Builder()
+            .database(db)
+            .stagingRoot(stagingDir)
+            .archiveProvider(new ZipArchiveProvider(archiveDir))
+            .databaseBackedContentManager(new StoreInventoryDbBackedContentManager())
+            .build();
+        dbBackedStore.newTopLayer();
+        var casStorage = new LayeredStorage.Builder().itemStore(dbBackedStore).contentAddressed(true).contentAddressedMinSize(1).build();
+        var source = Files.writeString(testDir.resolve("source.txt"), "blob content");
+        casStorage.createDirectories("a/obj/v1/content");
+
+        casStorage.copyFileInto(source, "a/obj/v1/content/file.txt", null);
+
+        var digest = computeSha512("blob content");
+        try (var files = Files.walk(stagingDir)) {
+            var blob = files.filter(p -> p.endsWith(ContentAddressedStore.blobPath(digest))).findFirst();
+            assertThat(blob).isPresent();
+            assertThat(blob.get()).hasContent("blob content");
+        }
+        assertThat(casStorage.readToString("a/obj/v1/content/file.txt")).isEqualTo("blob content");
+    }
+
+    @Test
+    public void files_that_merely_look_like_references_are_read_as_is() throws Exception {
+        var casStorage = new LayeredStorage.Builder().itemStore(itemStore).contentAddressed(true).contentAddressedMinSize(1).build();
+        var lookalike = ContentAddressedStore.reference(computeSha512("other content"));
+        casStorage.createDirectories("a/obj/v1/content");
+
+        casStorage.write("a/obj/v1/content/file.txt", lookalike, null);
+
+        try (var stream = casStorage.read("a/obj/v1/content/file.txt")) {
+            assertThat(stream.readAllBytes()).isEqualTo(lookalike);
+        }
+    }
+
+    @Test
+    public void marker_left_behind_by_a_deleted_reference_is_ignored() throws Exception {
+        var casStorage = new LayeredStorage.Builder().itemStore(itemStore).contentAddressed(true).contentAddressedMinSize(1).build();
+        var source = Files.writeString(testDir.resolve("source.txt"), "referenced content");
+        casStorage.createDirectories("a/obj/v1/content");
+        casStorage.copyFileInto(source, "a/obj/v1/content/file.txt", null);
+
+        // Deleted without its marker, as when deleting the marker fails
+        itemStore.deleteFiles(List.of("a/obj/v1/content/file.txt"));
+        casStorage.write("a/obj/v1/content/file.txt", "new content".getBytes(StandardCharsets.UTF_8), null);
+
+        assertThat(casStorage.readToString("a/obj/v1/content/file.txt")).isEqualTo("new content");
+    }
+
+    // --- copyDirectoryOutOf ---
+
+    @Test
+    public void copyDirectoryOutOf_in_parallel_copies_files_from_all_layers_and_empty_directories() throws Exception {
+        var parallelStorage = new LayeredStorage.Builder().itemStore(itemStore).copyOutParallelism(4).build();
+        parallelStorage.write("a/obj/v1/content/x.txt", "x".getBytes(StandardCharsets.UTF_8), null);
+        itemStore.newTopLayer();
+        parallelStorage.write("a/obj/v1/content/sub/y.txt", "y".getBytes(StandardCharsets.UTF_8), null);
+        parallelStorage.createDirectories("a/obj/v1/content/empty");
+
+        var outDir = testDir.resolve("out");
+        parallelStorage.copyDirectoryOutOf("a/obj/v1", outDir);
+
+        assertThat(Files.readString(outDir.resolve("content/x.txt"))).isEqualTo("x");
+        assertThat(Files.readString(outDir.resolve("content/sub/y.txt"))).isEqualTo("y");
+        assertThat(outDir.resolve("content/empty")).isEmptyDirectory();
+    }
+
+    // --- prefetch ---
+
+    @Test
+    public void reading_inventory_prefetches_head_version_content_into_content_cache() throws Exception {
+        var cacheDir = testDir.resolve("content-cache");
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var prefetchingStorage = new LayeredStorage.Builder()
+                .itemStore(itemStore)
+                .contentCacheDir(cacheDir)
+                .prefetchExecutor(executor)
+                .workerContext(new SessionBindingWorkerContext(daoTestExtension.getSessionFactory()))
+                .build();
+            var digest = computeSha512("prefetched");
+            var inventory = String.format("{\"head\": \"v1\", \"digestAlgorithm\": \"sha512\", \"manifest\": {\"%1$s\": [\"v1/content/x.txt\"]}, "
+                + "\"versions\": {\"v1\": {\"state\": {\"%1$s\": [\"x.txt\"]}}}}", digest);
+            // Committed, so that the session of the prefetch thread can see the items
+            daoTestExtension.inTransaction(() -> {
+                prefetchingStorage.write("a/obj/v1/content/x.txt", "prefetched".getBytes(StandardCharsets.UTF_8), null);
+                itemStore.newTopLayer();
+                prefetchingStorage.write("a/obj/inventory.json", inventory.getBytes(StandardCharsets.UTF_8), null);
+                return null;
+            });
+
+            assertThat(prefetchingStorage.readToString("a/obj/inventory.json")).isEqualTo(inventory);
+
+            var cachedFile = cacheDir.resolve("sha512").resolve(digest.substring(0, 2)).resolve(digest);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!Files.exists(cachedFile) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(cachedFile).hasContent("prefetched");
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void prefetchExecutor_requires_contentCacheDir() {
+        assertThatThrownBy(() -> new LayeredStorage.Builder().itemStore(itemStore).prefetchExecutor(Runnable::run).build())
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    // --- readOnlySnapshot ---
+
+    @Test
+    public void readOnlySnapshot_answers_lookups_and_sees_new_items_only_after_reload() throws Exception {
+        storage.write("a/b/file.txt", "hello".getBytes(StandardCharsets.UTF_8), null);
+        var readOnly = new LayeredStorage.Builder().itemStore(itemStore).readOnlySnapshot(true).build();
+
+        assertThat(readOnly.fileExists("a/b/file.txt")).isTrue();
+        assertThat(readOnly.listDirectory("a")).containsExactlyInAnyOrderElementsOf(storage.listDirectory("a"));
+        assertThat(readOnly.directoryIsEmpty("a/b")).isFalse();
+        try (var is = readOnly.read("a/b/file.txt")) {
+            assertThat(is.readAllBytes()).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        }
+
+        storage.write("a/b/other.txt", "world".getBytes(StandardCharsets.UTF_8), null);
+        assertThat(readOnly.fileExists("a/b/other.txt")).isFalse();
+        assertThatThrownBy(() -> readOnly.read("a/b/other.txt")).isInstanceOf(OcflNoSuchFileException.class);
+
+        readOnly.reloadSnapshot();
+        assertThat(readOnly.fileExists("a/b/other.txt")).isTrue();
+        assertThat(readOnly.listRecursive("a")).hasSize(3).containsExactlyInAnyOrderElementsOf(storage.listRecursive("a"));
+    }
+
+    @Test
+    public void readOnlySnapshot_rejects_changes() {
+        var readOnly = new LayeredStorage.Builder().itemStore(itemStore).readOnlySnapshot(true).build();
+
+        assertThatThrownBy(() -> readOnly.write("a/b/file.txt", new byte[0], null)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> readOnly.deleteDirectory("a")).isInstanceOf(UnsupportedOperationException.class);
+        assertThat(itemStore.existsPathLike("a/b")).isTrue();
+    }
+
+    @Test
+    public void reloadSnapshot_throws_when_not_read_only() {
+        assertThatThrownBy(() -> storage.reloadSnapshot()).isInstanceOf(IllegalStateException.class);
+    }
+
     // --- helper ---
 
     private static String computeSha512(String content) {
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import com.codahale.metrics.MetricRegistry;
+import io.ocfl.api.DigestAlgorithmRegistry;
+import io.ocfl.core.storage.common.Storage;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MetricsStorageTest {
+
+    @Test
+    public void records_timers_and_bytes_read_and_written() throws Exception {
+        var delegate = mock(Storage.class);
+        when(delegate.read("a/file.txt")).thenReturn(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)));
+        when(delegate.readToString("a/inventory.json")).thenReturn("{\"é\": 1}");
+        var registry = new MetricRegistry();
+        var storage = new MetricsStorage(delegate, registry, "storage");
+
+        try (var is = storage.read("a/file.txt")) {
+            assertThat(is.readAllBytes()).hasSize(5);
+        }
+        assertThat(storage.readToString("a/inventory.json")).isEqualTo("{\"é\": 1}");
+        storage.write("a/other.txt", new byte[3], null);
+
+        verify(delegate).write("a/other.txt", new byte[3], null);
+        assertThat(registry.timer("storage.read").getCount()).isEqualTo(1);
+        assertThat(registry.timer("storage.readToString").getCount()).isEqualTo(1);
+        assertThat(registry.timer("storage.write").getCount()).isEqualTo(1);
+        assertThat(registry.meter("storage.bytes-read").getCount()).isEqualTo(5 + 9);
+        assertThat(registry.meter("storage.bytes-written").getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void counts_bytes_read_through_retrieveFile_of_layered_storage_retriever() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        when(itemStore.readFile("a/file.txt")).thenReturn(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)));
+        var delegate = mock(Storage.class);
+        var digest = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-512").digest("hello".getBytes(StandardCharsets.UTF_8)));
+        when(delegate.readLazy("a/file.txt", DigestAlgorithmRegistry.sha512, digest))
+            .thenReturn(new LayeredStorageOcflFileRetriever(itemStore, "a/file.txt", DigestAlgorithmRegistry.sha512, digest));
+        var registry = new MetricRegistry();
+        var storage = new MetricsStorage(delegate, registry, "storage");
+
+        try (var is = storage.readLazy("a/file.txt", DigestAlgorithmRegistry.sha512, digest).retrieveFile()) {
+            assertThat(is.readAllBytes()).hasSize(5);
+        }
+
+        assertThat(registry.timer("storage.retrieveFile").getCount()).isEqualTo(1);
+        assertThat(registry.meter("storage.bytes-read").getCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void records_compression_metrics_of_content_manager() {
+        var registry = new MetricRegistry();
+        var contentManager = new MetricsContentManager(new StoreInventoryDbBackedContentManager(), registry, "inventory");
+        var inventory = "{\"id\": \"x\"}".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        var stored = contentManager.preStore("a/inventory.json", inventory);
+        assertThat(contentManager.postRetrieve("a/inventory.json", stored)).isEqualTo(inventory);
+
+        assertThat(registry.timer("inventory.compress").getCount()).isEqualTo(1);
+        assertThat(registry.timer("inventory.decompress").getCount()).isEqualTo(1);
+        assertThat(registry.histogram("inventory.compressed-percentage").getSnapshot().getMax()).isLessThan(50);
+    }
+
+    @Test
+    public void does_not_record_compressed_percentage_of_content_stored_as_is() {
+        var registry = new MetricRegistry();
+        var contentManager = new MetricsContentManager(new StoreInventoryDbBackedContentManager(), registry, "inventory");
+
+        contentManager.preStore("a/v1/content/inventory.json.sha512", "abc".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(registry.timer("inventory.compress").getCount()).isEqualTo(1);
+        assertThat(registry.histogram("inventory.compressed-percentage").getCount()).isZero();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.OcflFileRetriever;
+import io.ocfl.api.model.DigestAlgorithm;
+import io.ocfl.core.storage.common.Storage;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ObjectLockingStorageTest {
+    private final Storage delegate = mock(Storage.class);
+    private final ObjectLockingStorage storage = new ObjectLockingStorage(delegate);
+    private final CountDownLatch inside = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    public void writes_to_the_same_object_wait_for_each_other_and_writes_to_other_objects_do_not() throws Exception {
+        blockWhileWriting("aa/obj1/v1/content/x");
+        var first = CompletableFuture.runAsync(() -> storage.write("aa/obj1/v1/content/x", new byte[1], null));
+        assertThat(inside.await(10, TimeUnit.SECONDS)).isTrue();
+
+        var otherObject = CompletableFuture.runAsync(() -> storage.write("aa/obj2/v1/content/x", new byte[1], null));
+        var sameObject = CompletableFuture.runAsync(() -> storage.write("aa/obj1/inventory.json", new byte[1], null));
+        otherObject.get(10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertThat(sameObject).isNotDone();
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        sameObject.get(10, TimeUnit.SECONDS);
+        verify(delegate).write(eq("aa/obj1/inventory.json"), any(), eq(null));
+    }
+
+    @Test
+    public void deleteEmptyDirsDown_waits_for_writers_of_all_objects() throws Exception {
+        blockWhileWriting("aa/obj1/v1/content/x");
+        var writer = CompletableFuture.runAsync(() -> storage.write("aa/obj1/v1/content/x", new byte[1], null));
+        assertThat(inside.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // "aa" is not in the same object as the writer, but deleting its empty directories may touch the writer's object
+        var delete = CompletableFuture.runAsync(() -> storage.deleteEmptyDirsDown("aa"));
+        Thread.sleep(100);
+        assertThat(delete).isNotDone();
+
+        release.countDown();
+        writer.get(10, TimeUnit.SECONDS);
+        delete.get(10, TimeUnit.SECONDS);
+        verify(delegate).deleteEmptyDirsDown("aa");
+    }
+
+    @Test
+    public void object_roots_named_like_version_directories_get_their_own_lock() throws Exception {
+        when(delegate.fileExists("aa/v1/0=ocfl_object_1.1")).thenReturn(true);
+        when(delegate.fileExists("aa/v2/0=ocfl_object_1.1")).thenReturn(true);
+        blockWhileWriting("aa/v1/v1/content/x");
+        var first = CompletableFuture.runAsync(() -> storage.write("aa/v1/v1/content/x", new byte[1], null));
+        assertThat(inside.await(10, TimeUnit.SECONDS)).isTrue();
+
+        var otherObject = CompletableFuture.runAsync(() -> storage.write("aa/v2/v1/inventory.json", new byte[1], null));
+        var sameObject = CompletableFuture.runAsync(() -> storage.write("aa/v1/inventory.json", new byte[1], null));
+        otherObject.get(10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertThat(sameObject).isNotDone();
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        sameObject.get(10, TimeUnit.SECONDS);
+        verify(delegate).write(eq("aa/v1/inventory.json"), any(), eq(null));
+    }
+
+    @Test
+    public void readLazy_waits_for_writers_of_the_same_object_when_the_file_is_opened() throws Exception {
+        var retriever = mock(OcflFileRetriever.class);
+        when(delegate.readLazy("aa/obj1/v1/content/x", DigestAlgorithm.sha512, "abc")).thenReturn(retriever);
+        var lazy = storage.readLazy("aa/obj1/v1/content/x", DigestAlgorithm.sha512, "abc");
+        blockWhileWriting("aa/obj1/v1/content/x");
+        var writer = CompletableFuture.runAsync(() -> storage.write("aa/obj1/v1/content/x", new byte[1], null));
+        assertThat(inside.await(10, TimeUnit.SECONDS)).isTrue();
+
+        var reader = CompletableFuture.runAsync(lazy::retrieveFile);
+        Thread.sleep(100);
+        assertThat(reader).isNotDone();
+
+        release.countDown();
+        writer.get(10, TimeUnit.SECONDS);
+        reader.get(10, TimeUnit.SECONDS);
+        verify(retriever).retrieveFile();
+    }
+
+    private void blockWhileWriting(String path) {
+        doAnswer(invocation -> {
+            inside.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(delegate).write(eq(path), any(), eq(null));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ObjectLocksTest {
+
+    @Test
+    public void derives_object_root_from_path() {
+        assertThat(ObjectLocks.objectRootOf("0a1/b2c/obj1/v2/content/dir/file.txt", path -> true)).isEqualTo("0a1/b2c/obj1");
+        assertThat(ObjectLocks.objectRootOf("0a1/b2c/obj1/inventory.json.sha512", path -> true)).isEqualTo("0a1/b2c/obj1");
+        assertThat(ObjectLocks.objectRootOf("0a1/b2c/obj1/0=ocfl_object_1.1", path -> true)).isEqualTo("0a1/b2c/obj1");
+        assertThat(ObjectLocks.objectRootOf("0a1/b2c/obj1/extensions/0005-mutable-head/head/inventory.json", path -> true)).isEqualTo("0a1/b2c/obj1");
+        assertThat(ObjectLocks.objectRootOf("0a1/b2c/obj1", path -> true)).isEqualTo("0a1/b2c/obj1");
+    }
+
+    @Test
+    public void writer_blocks_writers_of_same_object_only() throws Exception {
+        var locks = new ObjectLocks(1024);
+        var inside = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        var first = CompletableFuture.runAsync(() -> locks.write(List.of("aa/obj1/v1/content/x"), () -> {
+            inside.countDown();
+            await(release);
+        }));
+        assertThat(inside.await(10, TimeUnit.SECONDS)).isTrue();
+
+        var otherObject = CompletableFuture.runAsync(() -> locks.write(List.of("aa/obj2/v1/content/x"), () -> {}));
+        var sameObject = CompletableFuture.runAsync(() -> locks.write(List.of("aa/obj1/inventory.json"), () -> {}));
+        otherObject.get(10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertThat(sameObject).isNotDone();
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        sameObject.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
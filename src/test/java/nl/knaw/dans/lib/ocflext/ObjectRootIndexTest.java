@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ObjectRootIndexTest {
+
+    @Test
+    public void loads_object_roots_once_and_tracks_writes() {
+        var loads = new int[1];
+        var index = new ObjectRootIndex(() -> {
+            loads[0]++;
+            return List.of("aa/obj1").iterator();
+        });
+
+        index.fileWritten("bb/obj2/0=ocfl_object_1.1");
+        index.fileWritten("bb/obj2/inventory.json");
+
+        assertThat(index.getObjectRoots()).containsExactly("aa/obj1", "bb/obj2");
+        assertThat(index.getObjectRoots()).containsExactly("aa/obj1", "bb/obj2");
+        assertThat(loads[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void removes_object_roots_on_delete() {
+        var index = new ObjectRootIndex(() -> List.of("aa/obj1", "aa/obj2", "aab/obj3", "bb/obj4").iterator());
+
+        index.directoryDeleted("aa");
+        index.filesDeleted(List.of("bb/obj4/0=ocfl_object_1.1"));
+
+        assertThat(index.getObjectRoots()).containsExactly("aab/obj3");
+    }
+
+    @Test
+    public void moves_object_roots_with_their_directory() {
+        var index = new ObjectRootIndex(() -> List.of("aa/obj1", "aa/obj2", "bb/obj3").iterator());
+
+        index.directoryMoved("aa", "cc");
+        index.directoryMoved("bb/obj3", "bb/obj4");
+
+        assertThat(index.getObjectRoots()).containsExactly("bb/obj4", "cc/obj1", "cc/obj2");
+    }
+}
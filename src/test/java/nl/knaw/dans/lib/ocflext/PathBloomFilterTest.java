@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PathBloomFilterTest {
+
+    @Test
+    public void mightContain_returns_true_for_all_added_paths() {
+        var filter = new PathBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("a/b/object-" + i + "/inventory.json");
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(filter.mightContain("a/b/object-" + i + "/inventory.json")).isTrue();
+        }
+    }
+
+    @Test
+    public void mightContain_returns_false_for_most_paths_that_were_not_added() {
+        var filter = new PathBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("a/b/object-" + i + "/inventory.json");
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain("a/b/object-" + i + "/inventory.json.sha512")) {
+                falsePositives++;
+            }
+        }
+        // Expected is about 100; allow for some variance
+        assertThat(falsePositives).isLessThan(300);
+    }
+
+    @Test
+    public void isSaturated_returns_true_only_after_more_than_expected_insertions() {
+        var filter = new PathBloomFilter(2, 0.01);
+        filter.add("a");
+        filter.add("b");
+        assertThat(filter.isSaturated()).isFalse();
+
+        filter.add("c");
+        assertThat(filter.isSaturated()).isTrue();
+        assertThat(filter.mightContain("c")).isTrue();
+    }
+
+    @Test
+    public void constructor_rejects_invalid_false_positive_probability() {
+        assertThatThrownBy(() -> new PathBloomFilter(100, 1.0))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import nl.knaw.dans.layerstore.Item;
+import nl.knaw.dans.layerstore.ItemStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PathSnapshotTest {
+    private PathSnapshot snapshot;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        when(itemStore.listDirectory("")).thenReturn(List.of(directory("d"), file("d.txt"), directory("e")));
+        when(itemStore.listRecursive("d")).thenReturn(List.of(
+            directory("d/x"), file("d/x.txt"), file("d/x/y"), directory("d/x/z"), file("d/x/z/0=ocfl_object_1.1"), file("d/x0")));
+        when(itemStore.listRecursive("e")).thenReturn(List.of());
+        snapshot = PathSnapshot.load(itemStore);
+    }
+
+    @Test
+    public void listDirectory_skips_subtrees_but_not_siblings_that_sort_between() throws Exception {
+        assertThat(snapshot.listDirectory("d")).extracting(Item::getPath).containsExactly("d/x", "d/x.txt", "d/x0");
+        assertThat(snapshot.listDirectory("")).extracting(Item::getPath).containsExactly("d", "d.txt", "e");
+    }
+
+    @Test
+    public void listRecursive_returns_only_descendants() throws Exception {
+        assertThat(snapshot.listRecursive("d/x")).extracting(Item::getPath).containsExactly("d/x/y", "d/x/z", "d/x/z/0=ocfl_object_1.1");
+        assertThat(snapshot.listRecursive("e")).isEmpty();
+    }
+
+    @Test
+    public void lookups_distinguish_files_and_directories() {
+        assertThat(snapshot.exists("d/x.txt")).isTrue();
+        assertThat(snapshot.isDirectory("d/x.txt")).isFalse();
+        assertThat(snapshot.isDirectory("d/x")).isTrue();
+        assertThat(snapshot.hasChildren("e")).isFalse();
+        assertThat(snapshot.hasChildren("d/x")).isTrue();
+        assertThatThrownBy(() -> snapshot.listDirectory("d/x.txt")).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    public void object_roots_are_the_parents_of_namaste_files() {
+        assertThat(snapshot.getObjectRoots()).containsExactly("d/x/z");
+    }
+
+    @Test
+    public void lookups_work_across_blocks_of_front_coded_paths() throws Exception {
+        var itemStore = mock(ItemStore.class);
+        var descendants = new ArrayList<Item>();
+        var expectedFiles = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            descendants.add(directory("r/dir" + i));
+            for (var name : List.of("a.txt", "ü.txt", "b")) {
+                descendants.add(file("r/dir" + i + "/" + name));
+                expectedFiles.add("r/dir" + i + "/" + name);
+            }
+        }
+        Collections.shuffle(descendants, new Random(1));
+        when(itemStore.listDirectory("")).thenReturn(List.of(directory("r")));
+        when(itemStore.listRecursive("r")).thenReturn(descendants);
+        var large = PathSnapshot.load(itemStore);
+
+        assertThat(large.size()).isEqualTo(201);
+        for (var path : expectedFiles) {
+            assertThat(large.exists(path)).as(path).isTrue();
+            assertThat(large.isDirectory(path)).as(path).isFalse();
+        }
+        assertThat(large.exists("r/dir7/c.txt")).isFalse();
+        assertThat(large.exists("r/dir")).isFalse();
+        assertThat(large.listDirectory("r/dir42")).extracting(Item::getPath).containsExactly("r/dir42/a.txt", "r/dir42/b", "r/dir42/ü.txt");
+        assertThat(large.listDirectory("r")).hasSize(50).allMatch(item -> item.getType() == Item.Type.Directory);
+        assertThat(large.listRecursive("")).extracting(Item::getPath).isSortedAccordingTo(String::compareTo).hasSize(201);
+    }
+
+    private static Item file(String path) {
+        return Item.builder().path(path).type(Item.Type.File).build();
+    }
+
+    private static Item directory(String path) {
+        return Item.builder().path(path).type(Item.Type.Directory).build();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PooledZipArchiveProviderTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void reads_archived_layer_through_the_pool() throws Exception {
+        ZipFileHandlePoolTest.createZip(archiveDir, "7.zip", "a/file.txt", "hello");
+        try (var pool = new ZipFileHandlePool(10, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            var provider = new PooledZipArchiveProvider(archiveDir, pool);
+            var archive = provider.createArchive(7);
+
+            for (int i = 0; i < 2; i++) {
+                try (var is = archive.readFile("a/file.txt")) {
+                    assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("hello");
+                }
+            }
+
+            assertThat(provider.exists(7)).isTrue();
+            assertThat(archive.isArchived()).isTrue();
+            assertThat(archive.fileExists("a/file.txt")).isTrue();
+            assertThat(archive.fileExists("a/other.txt")).isFalse();
+            assertThat(pool.openCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void does_not_use_the_pool_for_layers_that_are_not_archived() throws Exception {
+        try (var pool = new ZipFileHandlePool(10, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            var provider = new PooledZipArchiveProvider(archiveDir, pool);
+
+            assertThat(provider.exists(8)).isFalse();
+            assertThat(provider.createArchive(8).isArchived()).isFalse();
+            assertThat(Files.exists(archiveDir.resolve("8.zip"))).isFalse();
+            assertThat(pool.openCount()).isZero();
+        }
+    }
+
+    @Test
+    public void emits_one_archive_open_event_with_the_layer_id() throws Exception {
+        ZipFileHandlePoolTest.createZip(archiveDir, "9.zip", "a/file.txt", "hello");
+        var recordingFile = testDir.resolve("recording.jfr");
+
+        try (var recording = new Recording();
+            var pool = new ZipFileHandlePool(10, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            recording.enable("nl.knaw.dans.ocflext.ArchiveOpen").withoutThreshold();
+            recording.start();
+            var archive = new PooledZipArchiveProvider(archiveDir, pool).createArchive(9);
+            archive.readFile("a/file.txt").close();
+            archive.readFile("a/file.txt").close();
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        assertThat(RecordingFile.readAllEvents(recordingFile))
+            .filteredOn(e -> e.getEventType().getName().equals("nl.knaw.dans.ocflext.ArchiveOpen"))
+            .extracting(e -> e.getLong("layerId") + " " + e.getString("archive"))
+            .containsExactly("9 " + archiveDir.resolve("9.zip"));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import io.ocfl.api.exception.OcflIOException;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReadSchedulerTest {
+
+    @Test
+    public void queues_opens_beyond_limit_until_the_open_completes() throws Exception {
+        var scheduler = new ReadScheduler(1, Duration.ofSeconds(10));
+        var firstOpening = new CountDownLatch(1);
+        var firstMayOpen = new CountDownLatch(1);
+        var first = CompletableFuture.supplyAsync(() -> scheduler.open("a", ReadScheduler.Priority.BULK, () -> blockingOpen(firstOpening, firstMayOpen)));
+        firstOpening.await(10, TimeUnit.SECONDS);
+
+        var second = CompletableFuture.supplyAsync(() -> scheduler.open("b", ReadScheduler.Priority.BULK, InputStream::nullInputStream));
+        waitUntil(() -> scheduler.getStatistics().getQueuedBulkReads() == 1);
+        assertThat(second).isNotDone();
+
+        firstMayOpen.countDown();
+        first.get(10, TimeUnit.SECONDS).close();
+        second.get(10, TimeUnit.SECONDS).close();
+        assertThat(scheduler.getStatistics()).isEqualTo(new ReadSchedulerStatistics(0, 0, 0));
+    }
+
+    @Test
+    public void does_not_hold_a_slot_while_the_stream_is_open() throws Exception {
+        var scheduler = new ReadScheduler(1, Duration.ofSeconds(10));
+
+        try (var first = scheduler.open("a", ReadScheduler.Priority.BULK, InputStream::nullInputStream);
+            var second = scheduler.open("b", ReadScheduler.Priority.BULK, InputStream::nullInputStream)) {
+            assertThat(scheduler.getStatistics().getActiveReads()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void lets_interactive_reads_go_before_bulk_reads() throws Exception {
+        var scheduler = new ReadScheduler(1, Duration.ofSeconds(10));
+        var order = new CopyOnWriteArrayList<String>();
+        var firstOpening = new CountDownLatch(1);
+        var firstMayOpen = new CountDownLatch(1);
+        var first = CompletableFuture.supplyAsync(() -> scheduler.open("a", ReadScheduler.Priority.BULK, () -> blockingOpen(firstOpening, firstMayOpen)));
+        firstOpening.await(10, TimeUnit.SECONDS);
+
+        var bulk = CompletableFuture.runAsync(() -> openAndClose(scheduler, "bulk", ReadScheduler.Priority.BULK, order));
+        waitUntil(() -> scheduler.getStatistics().getQueuedBulkReads() == 1);
+        var interactive = CompletableFuture.runAsync(() -> openAndClose(scheduler, "interactive", ReadScheduler.Priority.INTERACTIVE, order));
+        waitUntil(() -> scheduler.getStatistics().getQueuedInteractiveReads() == 1);
+
+        firstMayOpen.countDown();
+        first.get(10, TimeUnit.SECONDS).close();
+        CompletableFuture.allOf(bulk, interactive).get(10, TimeUnit.SECONDS);
+        assertThat(order).containsExactly("interactive", "bulk");
+    }
+
+    @Test
+    public void fails_if_no_slot_becomes_available_in_time() throws Exception {
+        var scheduler = new ReadScheduler(1, Duration.ofMillis(100));
+        var firstOpening = new CountDownLatch(1);
+        var firstMayOpen = new CountDownLatch(1);
+        var first = CompletableFuture.supplyAsync(() -> scheduler.open("a", ReadScheduler.Priority.BULK, () -> blockingOpen(firstOpening, firstMayOpen)));
+        firstOpening.await(10, TimeUnit.SECONDS);
+
+        try {
+            assertThatThrownBy(() -> scheduler.open("b", ReadScheduler.Priority.BULK, InputStream::nullInputStream))
+                .isInstanceOf(OcflIOException.class)
+                .hasMessageContaining("Timed out opening b");
+            assertThat(scheduler.getStatistics()).isEqualTo(new ReadSchedulerStatistics(1, 0, 0));
+        }
+        finally {
+            firstMayOpen.countDown();
+            first.get(10, TimeUnit.SECONDS).close();
+        }
+    }
+
+    @Test
+    public void releases_the_slot_if_the_open_fails() {
+        var scheduler = new ReadScheduler(1, Duration.ofSeconds(10));
+
+        assertThatThrownBy(() -> scheduler.open("a", ReadScheduler.Priority.BULK, () -> {
+            throw new NoSuchFileException("a");
+        })).isInstanceOf(OcflIOException.class);
+        assertThat(scheduler.getStatistics()).isEqualTo(new ReadSchedulerStatistics(0, 0, 0));
+    }
+
+    private static InputStream blockingOpen(CountDownLatch opening, CountDownLatch mayOpen) throws InterruptedIOException {
+        opening.countDown();
+        try {
+            mayOpen.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        return InputStream.nullInputStream();
+    }
+
+    private static void openAndClose(ReadScheduler scheduler, String name, ReadScheduler.Priority priority, List<String> order) {
+        try (var is = scheduler.open(name, priority, InputStream::nullInputStream)) {
+            order.add(name);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
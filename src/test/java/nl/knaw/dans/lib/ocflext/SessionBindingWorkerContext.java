@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.context.internal.ManagedSessionContext;
+
+import java.io.IOException;
+
+/**
+ * Binds a new Hibernate session to worker threads, as an application with a {@link nl.knaw.dans.layerstore.LayeredItemStore} would.
+ */
+class SessionBindingWorkerContext implements WorkerContext {
+    private final SessionFactory sessionFactory;
+
+    SessionBindingWorkerContext(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public <T> T call(Work<T> work) throws IOException {
+        if (ManagedSessionContext.hasBind(sessionFactory)) {
+            return work.call();
+        }
+        try (var session = sessionFactory.openSession()) {
+            ManagedSessionContext.bind(session);
+            var transaction = session.beginTransaction();
+            try {
+                var result = work.call();
+                transaction.commit();
+                return result;
+            }
+            catch (IOException | RuntimeException e) {
+                transaction.rollback();
+                throw e;
+            }
+            finally {
+                ManagedSessionContext.unbind(sessionFactory);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StoreInventoryDbBackedContentManagerTest {
+    private static final String INVENTORY_PATH = "ab/cd/obj1/inventory.json";
+
+    private final StoreInventoryDbBackedContentManager contentManager = new StoreInventoryDbBackedContentManager();
+
+    private static byte[] inventoryBytes() {
+        var sb = new StringBuilder("{\"manifest\": {");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("\"").append(i).append("\": [\"v1/content/file").append(i).append(".txt\"],");
+        }
+        return sb.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void postRetrieve_returns_what_was_passed_to_preStore() {
+        var original = inventoryBytes();
+
+        var stored = contentManager.preStore(INVENTORY_PATH, original);
+
+        assertThat(stored.length).isLessThan(original.length);
+        assertThat(contentManager.postRetrieve(INVENTORY_PATH, stored)).isEqualTo(original);
+    }
+
+    @Test
+    public void postRetrieve_handles_empty_content() {
+        var stored = contentManager.preStore(INVENTORY_PATH, new byte[0]);
+
+        assertThat(contentManager.postRetrieve(INVENTORY_PATH, stored)).isEmpty();
+    }
+
+    @Test
+    public void postRetrieve_decompresses_gzip_written_by_other_implementations() throws Exception {
+        var original = inventoryBytes();
+        var gzipped = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(original);
+        }
+
+        assertThat(contentManager.postRetrieve(INVENTORY_PATH, gzipped.toByteArray())).isEqualTo(original);
+    }
+
+    @Test
+    public void postRetrieve_does_not_trust_the_size_in_a_corrupt_gzip_trailer() {
+        var stored = contentManager.preStore(INVENTORY_PATH, inventoryBytes());
+        // Claim an uncompressed size of almost 2 GiB
+        stored[stored.length - 4] = (byte) 0xf0;
+        stored[stored.length - 3] = (byte) 0xff;
+        stored[stored.length - 2] = (byte) 0xff;
+        stored[stored.length - 1] = (byte) 0x7f;
+
+        assertThatThrownBy(() -> contentManager.postRetrieve(INVENTORY_PATH, stored))
+            .isInstanceOf(RuntimeException.class)
+            .hasMessage("Failed to decompress data");
+    }
+
+    @Test
+    public void test_excludes_content_addressed_blobs_and_version_content() {
+        assertThat(contentManager.test(INVENTORY_PATH)).isTrue();
+        assertThat(contentManager.test("ab/cd/obj1/v1/content/file.txt")).isFalse();
+        assertThat(contentManager.test(ContentAddressedStore.blobPath("ab".repeat(64)))).isFalse();
+    }
+}
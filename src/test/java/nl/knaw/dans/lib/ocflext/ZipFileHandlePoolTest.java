@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2023 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.ocflext;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ZipFileHandlePoolTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void reads_entries_and_keeps_archive_open() throws Exception {
+        var zip = createZip("a.zip", "x.txt", "hello");
+        try (var pool = new ZipFileHandlePool(10, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            for (int i = 0; i < 2; i++) {
+                try (var is = pool.readEntry(zip, 1, "x.txt")) {
+                    assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("hello");
+                }
+            }
+            assertThat(pool.hasEntry(zip, 1, "x.txt")).isTrue();
+            assertThat(pool.hasEntry(zip, 1, "y.txt")).isFalse();
+            assertThat(pool.openCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void closes_least_recently_used_archives_beyond_max_open() throws Exception {
+        var zip1 = createZip("1.zip", "x.txt", "1");
+        var zip2 = createZip("2.zip", "x.txt", "2");
+        var zip3 = createZip("3.zip", "x.txt", "3");
+        try (var pool = new ZipFileHandlePool(2, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            pool.readEntry(zip1, 1, "x.txt").close();
+            pool.readEntry(zip2, 1, "x.txt").close();
+            pool.readEntry(zip3, 1, "x.txt").close();
+
+            assertThat(pool.openCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void closes_idle_archives_after_idle_timeout() throws Exception {
+        var zip1 = createZip("1.zip", "x.txt", "1");
+        var zip2 = createZip("2.zip", "x.txt", "2");
+        try (var pool = new ZipFileHandlePool(10, Duration.ZERO, Duration.ofSeconds(10))) {
+            pool.readEntry(zip1, 1, "x.txt").close();
+            Thread.sleep(1);
+            pool.readEntry(zip2, 1, "x.txt").close();
+
+            assertThat(pool.openCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void does_not_exceed_max_open_while_archives_are_being_read() throws Exception {
+        var zip1 = createZip("1.zip", "x.txt", "1");
+        var zip2 = createZip("2.zip", "x.txt", "2");
+        try (var pool = new ZipFileHandlePool(1, Duration.ZERO, Duration.ofMillis(50))) {
+            try (var is = pool.readEntry(zip1, 1, "x.txt")) {
+                assertThatThrownBy(() -> pool.readEntry(zip2, 1, "x.txt"))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("in use");
+                assertThat(pool.openCount()).isEqualTo(1);
+                assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("1");
+            }
+        }
+    }
+
+    @Test
+    public void waiting_reader_proceeds_when_an_archive_is_released() throws Exception {
+        var zip1 = createZip("1.zip", "x.txt", "1");
+        var zip2 = createZip("2.zip", "x.txt", "2");
+        try (var pool = new ZipFileHandlePool(1, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            var is = pool.readEntry(zip1, 1, "x.txt");
+            var waiting = CompletableFuture.supplyAsync(() -> {
+                try (var other = pool.readEntry(zip2, 1, "x.txt")) {
+                    return new String(other.readAllBytes(), StandardCharsets.UTF_8);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Thread.sleep(50);
+            assertThat(waiting).isNotDone();
+
+            is.close();
+
+            assertThat(waiting.get(10, TimeUnit.SECONDS)).isEqualTo("2");
+            assertThat(pool.openCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void does_not_keep_handle_for_missing_archive() throws Exception {
+        try (var pool = new ZipFileHandlePool(1, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            assertThatThrownBy(() -> pool.readEntry(testDir.resolve("missing.zip"), 1, "x.txt"))
+                .isInstanceOf(NoSuchFileException.class);
+
+            assertThat(pool.openCount()).isZero();
+        }
+    }
+
+    @Test
+    public void throws_NoSuchFileException_for_missing_entry() throws Exception {
+        var zip = createZip("a.zip", "x.txt", "hello");
+        try (var pool = new ZipFileHandlePool(10, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            assertThatThrownBy(() -> pool.readEntry(zip, 1, "y.txt"))
+                .isInstanceOf(NoSuchFileException.class);
+        }
+    }
+
+    @Test
+    public void skips_in_uncompressed_entries_without_reading() throws Exception {
+        var content = "0123456789".repeat(1000);
+        var zip = testDir.resolve("stored.zip");
+        try (var out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(storedEntry("first.txt", "first"));
+            out.write(bytes("first"));
+            out.closeEntry();
+            out.putNextEntry(storedEntry("x.txt", content));
+            out.write(bytes(content));
+            out.closeEntry();
+        }
+        try (var pool = new ZipFileHandlePool(10, Duration.ofMinutes(1), Duration.ofSeconds(10))) {
+            try (var is = pool.readEntry(zip, 1, "x.txt")) {
+                assertThat(is.skip(9995)).isEqualTo(9995);
+                assertThat(is.available()).isEqualTo(5);
+                assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("56789");
+                assertThat(is.skip(10)).isZero();
+            }
+            try (var is = pool.readEntry(zip, 1, "first.txt")) {
+                assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("first");
+            }
+        }
+    }
+
+    private static ZipEntry storedEntry(String name, String content) {
+        var entry = new ZipEntry(name);
+        var crc = new CRC32();
+        crc.update(bytes(content));
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes(content).length);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static Path createZip(Path dir, String name, String entryName, String content) throws IOException {
+        var zip = dir.resolve(name);
+        try (var out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry(entryName));
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return zip;
+    }
+
+    private Path createZip(String name, String entryName, String content) throws IOException {
+        return createZip(testDir, name, entryName, content);
+    }
+}